@@ -0,0 +1,61 @@
+package me.lebogo.twitchwhitelist;
+
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.stream.Stream;
+
+/**
+ * Shared fixtures of the benchmarks
+ */
+final class BenchmarkData {
+    static {
+        ConfigurationSerialization.registerClass(TwitchWhitelisting.class, "TwitchWhitelisting");
+    }
+
+    private BenchmarkData() {
+    }
+
+    static void init() {
+        // runs the static initializer
+    }
+
+    static String twitchUsername(int i) {
+        return "viewer_" + i;
+    }
+
+    static String minecraftUsername(int i) {
+        return "Player" + i;
+    }
+
+    static TwitchWhitelisting whitelisting(int i) {
+        return new TwitchWhitelisting(twitchUsername(i), minecraftUsername(i), new Date(1_700_000_000_000L + i * 1000L), i % 4 != 0);
+    }
+
+    /**
+     * Writes a whitelistings.yml with {@code size} entries into a new temporary directory
+     */
+    static Path createStore(int size) throws IOException {
+        Path directory = Files.createTempDirectory("twitchwhitelist-jmh");
+        Path path = directory.resolve("whitelistings.yml");
+        WhitelistingStore store = new YamlWhitelistingStore(path, false, Long.MAX_VALUE);
+        for (int i = 0; i < size; i++) {
+            store.addWhitelisting(whitelisting(i));
+        }
+        store.save();
+        store.close();
+        return path;
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package me.lebogo.twitchwhitelist;
+
+import io.papermc.paper.command.brigadier.CommandSourceStack;
+import me.lebogo.twitchwhitelist.commands.RedemptionCommand;
+import org.bukkit.Server;
+import org.bukkit.entity.Entity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Tab completion of Twitch usernames for /redemption
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedemptionCommandBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    /**
+     * Typed prefix, longer prefixes match fewer names
+     */
+    @Param({"", "viewer_1", "viewer_1234"})
+    public String prefix;
+
+    private Path path;
+    private WhitelistingStore store;
+    private RedemptionCommand command;
+    private CommandSourceStack source;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkData.init();
+        path = BenchmarkData.createStore(size);
+        store = new YamlWhitelistingStore(path, true, Long.MAX_VALUE);
+        command = new RedemptionCommand(null, List.of(new TwitchChannel(null, ChannelConfig.DEFAULT_KEY, "0", store)), () -> 50);
+        source = stubSource();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        BenchmarkData.delete(path.getParent());
+    }
+
+    @Benchmark
+    public Collection<String> suggest() {
+        return command.suggest(source, new String[]{prefix});
+    }
+
+    /**
+     * Command source whose executor has every permission
+     */
+    private static CommandSourceStack stubSource() {
+        Logger logger = Logger.getLogger("TwitchWhitelist-Benchmark");
+        logger.setUseParentHandlers(false);
+        Server server = (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[]{Server.class},
+                (proxy, method, args) -> "getLogger".equals(method.getName()) ? logger : null);
+        Entity executor = (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(), new Class<?>[]{Entity.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hasPermission" -> true;
+                    case "getServer" -> server;
+                    default -> null;
+                });
+        return (CommandSourceStack) Proxy.newProxyInstance(CommandSourceStack.class.getClassLoader(), new Class<?>[]{CommandSourceStack.class},
+                (proxy, method, args) -> "getExecutor".equals(method.getName()) ? executor : null);
+    }
+}
@@ -0,0 +1,113 @@
+package me.lebogo.twitchwhitelist;
+
+import me.lebogo.twitchwhitelist.redemption.DenyReason;
+import me.lebogo.twitchwhitelist.redemption.Redemption;
+import me.lebogo.twitchwhitelist.redemption.RedemptionValidator;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The validation path a redemption takes before its whitelist command runs: local checks, the Mojang lookup
+ * and rendering the reply. Helix and chat are not involved, Mojang is answered from a prepared cache file
+ * and its API URL points nowhere, so an unexpected request fails instead of hitting the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RedemptionValidationBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    private Path path;
+    private WhitelistingStore store;
+    private RedemptionValidator validator;
+    private ChannelConfig config;
+    private Redemption[] redemptions;
+    private final MessageTemplate.Context context = new MessageTemplate.Context();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkData.init();
+        path = BenchmarkData.createStore(size);
+        store = new YamlWhitelistingStore(path, true, Long.MAX_VALUE);
+
+        Path cachePath = path.resolveSibling("mojang-cache.tsv");
+        long expiresAt = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        try (BufferedWriter writer = Files.newBufferedWriter(cachePath, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.write(BenchmarkData.minecraftUsername(size + i).toLowerCase(Locale.ROOT) + "\t" + (i % 10 == 0 ? "-" : new UUID(0, i)) + "\t" + expiresAt + "\n");
+            }
+        }
+        MojangProfileResolver resolver = new MojangProfileResolver("http://127.0.0.1:9", Duration.ofMillis(100), 10000, TimeUnit.DAYS.toMillis(1), TimeUnit.DAYS.toMillis(1), cachePath);
+
+        // never refreshed, so nobody is whitelisted or banned
+        Plugin plugin = (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[]{Plugin.class}, (proxy, method, args) -> null);
+        validator = new RedemptionValidator(new PlayerAccessIndex(plugin), () -> resolver, new LatencyHistogram());
+
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.set("accessToken", "token");
+        yaml.set("channelName", "channel");
+        yaml.set("rewardCost", 1000);
+        yaml.set("enableJava", true);
+        yaml.set("checkJavaUsernames", true);
+        yaml.set("javaWhitelistCommand", "/whitelist add {username}");
+        yaml.set("javaWhitelistSuccessfullMessage", "{username} has been whitelisted!");
+        yaml.set("enableBedrock", true);
+        yaml.set("bedrockWhitelistCommand", "/say {username} wants to be whitelisted on Bedrock!");
+        yaml.set("bedrockWhitelistSuccessfullMessage", "{username} will be whitelisted soon!");
+        config = new ChannelConfig(ChannelConfig.DEFAULT_KEY, yaml, yaml);
+
+        // one in ten viewers already redeemed, one in ten new names does not exist
+        redemptions = new Redemption[1000];
+        for (int i = 0; i < redemptions.length; i++) {
+            int viewer = i % 10 == 5 ? i : size + i;
+            redemptions[i] = new Redemption("redemption-" + i, "reward", "Minecraft Java Edition", BenchmarkData.twitchUsername(viewer),
+                    "Viewer" + viewer, BenchmarkData.minecraftUsername(size + i), true);
+        }
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        BenchmarkData.delete(path.getParent());
+    }
+
+    @Benchmark
+    public String validate() {
+        Redemption redemption = redemptions[next++ % redemptions.length];
+        context.reset()
+                .username(redemption.userInput())
+                .twitch(redemption.twitchUsername())
+                .display(redemption.displayName())
+                .isJava(redemption.isJava())
+                .cost(config.getRewardCost());
+
+        DenyReason reason = validator.validate(store, redemption);
+        if (reason == null) reason = validator.checkExternal(redemption, config, context);
+        if (reason != null) return reason.getMessage().render(context);
+        return config.getJavaWhitelistSuccessfullMessage().render(context);
+    }
+}
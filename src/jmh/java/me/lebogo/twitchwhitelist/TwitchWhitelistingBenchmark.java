@@ -0,0 +1,32 @@
+package me.lebogo.twitchwhitelist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of turning a YAML map back into a whitelisting
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TwitchWhitelistingBenchmark {
+    private Map<String, Object> serialized;
+
+    @Setup
+    public void setup() {
+        serialized = BenchmarkData.whitelisting(42).serialize();
+    }
+
+    @Benchmark
+    public TwitchWhitelisting deserialize() {
+        return TwitchWhitelisting.deserialize(serialized);
+    }
+}
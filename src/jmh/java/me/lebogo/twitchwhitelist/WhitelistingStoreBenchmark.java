@@ -0,0 +1,85 @@
+package me.lebogo.twitchwhitelist;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading, adding and looking up whitelistings at different store sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WhitelistingStoreBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"yaml", "journal"})
+    public String persistenceMode;
+
+    @Param({"yaml", "binary"})
+    public String snapshotFormat;
+
+    private Path path;
+    private WhitelistingStore store;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkData.init();
+    }
+
+    /**
+     * Recreates the store for every iteration, so addAndSave does not measure an ever larger store
+     */
+    @Setup(Level.Iteration)
+    public void createStore() throws IOException {
+        path = BenchmarkData.createStore(size);
+        store = new YamlWhitelistingStore(path, isJournaling(), Long.MAX_VALUE, isBinary());
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteStore() throws IOException {
+        store.close();
+        BenchmarkData.delete(path.getParent());
+    }
+
+    private boolean isJournaling() {
+        return "journal".equals(persistenceMode);
+    }
+
+    private boolean isBinary() {
+        return "binary".equals(snapshotFormat);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public WhitelistingStore load() {
+        WhitelistingStore loaded = new YamlWhitelistingStore(path, isJournaling(), Long.MAX_VALUE, isBinary());
+        loaded.close();
+        return loaded;
+    }
+
+    @Benchmark
+    public void addAndSave() {
+        store.addWhitelisting(BenchmarkData.whitelisting(size + next++));
+        store.save();
+    }
+
+    @Benchmark
+    public TwitchWhitelisting lookup() {
+        return store.getByTwitchUsername(BenchmarkData.twitchUsername(next++ % size));
+    }
+}
@@ -0,0 +1,151 @@
+package me.lebogo.twitchwhitelist;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Immutable settings of one Twitch channel. The channel configured at the top level of config.yml is called "default",
+ * additional channels are configured under "channels" and inherit every setting they do not set themselves,
+ * except for their reward IDs.
+ */
+public final class ChannelConfig {
+    public static final String DEFAULT_KEY = "default";
+
+    private final String key;
+    private final String path;
+    private final String accessToken;
+    private final String channelName;
+    private final int rewardCost;
+
+    // Java
+    private final boolean enableJava;
+    private final boolean checkJavaUsernames;
+    private final String javaRewardId;
+    private final MessageTemplate javaWhitelistCommand;
+    private final MessageTemplate javaWhitelistSuccessfullMessage;
+    private final MessageTemplate javaUnwhitelistCommand;
+
+    // Bedrock
+    private final boolean enableBedrock;
+    private final String bedrockRewardId;
+    private final MessageTemplate bedrockWhitelistCommand;
+    private final MessageTemplate bedrockWhitelistSuccessfullMessage;
+    private final MessageTemplate bedrockUnwhitelistCommand;
+
+    /**
+     * @param key      Name of the channel entry, "default" for the top-level channel
+     * @param section  Section holding the channel's settings
+     * @param defaults Section holding the inherited settings, usually the root of config.yml
+     */
+    public ChannelConfig(String key, ConfigurationSection section, ConfigurationSection defaults) {
+        this.key = key;
+        this.path = section.getCurrentPath() == null || section.getCurrentPath().isEmpty() ? "" : section.getCurrentPath() + ".";
+
+        this.accessToken = TwitchWhitelistConfig.stripTokenPrefix(inherited(section, defaults, "accessToken").getString("accessToken", ""));
+        this.channelName = section.getString("channelName", "").trim();
+        this.rewardCost = inherited(section, defaults, "rewardCost").getInt("rewardCost");
+
+        this.enableJava = inherited(section, defaults, "enableJava").getBoolean("enableJava");
+        this.checkJavaUsernames = inherited(section, defaults, "checkJavaUsernames").getBoolean("checkJavaUsernames");
+        this.javaRewardId = section.getString("javaRewardId", "Autogenerated");
+        this.javaWhitelistCommand = MessageTemplate.compileCommand(inherited(section, defaults, "javaWhitelistCommand").getString("javaWhitelistCommand"));
+        this.javaWhitelistSuccessfullMessage = MessageTemplate.compile(inherited(section, defaults, "javaWhitelistSuccessfullMessage").getString("javaWhitelistSuccessfullMessage"));
+        this.javaUnwhitelistCommand = MessageTemplate.compileCommand(inherited(section, defaults, "javaUnwhitelistCommand").getString("javaUnwhitelistCommand", "/whitelist remove {username}"));
+
+        this.enableBedrock = inherited(section, defaults, "enableBedrock").getBoolean("enableBedrock");
+        this.bedrockRewardId = section.getString("bedrockRewardId", "Autogenerated");
+        this.bedrockWhitelistCommand = MessageTemplate.compileCommand(inherited(section, defaults, "bedrockWhitelistCommand").getString("bedrockWhitelistCommand"));
+        this.bedrockWhitelistSuccessfullMessage = MessageTemplate.compile(inherited(section, defaults, "bedrockWhitelistSuccessfullMessage").getString("bedrockWhitelistSuccessfullMessage"));
+        this.bedrockUnwhitelistCommand = MessageTemplate.compileCommand(inherited(section, defaults, "bedrockUnwhitelistCommand").getString("bedrockUnwhitelistCommand", ""));
+    }
+
+    private static ConfigurationSection inherited(ConfigurationSection section, ConfigurationSection defaults, String key) {
+        return section.isSet(key) ? section : defaults;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the path prefix of this channel's settings in config.yml, empty for the default channel
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isDefault() {
+        return DEFAULT_KEY.equals(key);
+    }
+
+    /**
+     * Gets the broadcaster token used for reward management and redemption events of this channel
+     */
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    /**
+     * Gets the login of the channel, empty if none is configured
+     */
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public int getRewardCost() {
+        return rewardCost;
+    }
+
+    // ----------------- Java -----------------
+
+    public boolean getEnableJava() {
+        return enableJava;
+    }
+
+    public boolean getCheckJavaUsernames() {
+        return checkJavaUsernames;
+    }
+
+    public String getJavaRewardId() {
+        return javaRewardId;
+    }
+
+    public MessageTemplate getJavaWhitelistCommand() {
+        return javaWhitelistCommand;
+    }
+
+    public MessageTemplate getJavaWhitelistSuccessfullMessage() {
+        return javaWhitelistSuccessfullMessage;
+    }
+
+    /**
+     * Gets the command that is run when a Java whitelisting expires, renders empty if nothing should run
+     */
+    public MessageTemplate getJavaUnwhitelistCommand() {
+        return javaUnwhitelistCommand;
+    }
+
+    // ----------------- Bedrock -----------------
+
+    public boolean getEnableBedrock() {
+        return enableBedrock;
+    }
+
+    public String getBedrockRewardId() {
+        return bedrockRewardId;
+    }
+
+    public MessageTemplate getBedrockWhitelistCommand() {
+        return bedrockWhitelistCommand;
+    }
+
+    public MessageTemplate getBedrockWhitelistSuccessfullMessage() {
+        return bedrockWhitelistSuccessfullMessage;
+    }
+
+    /**
+     * Gets the command that is run when a Bedrock whitelisting expires, renders empty if nothing should run
+     */
+    public MessageTemplate getBedrockUnwhitelistCommand() {
+        return bedrockUnwhitelistCommand;
+    }
+}
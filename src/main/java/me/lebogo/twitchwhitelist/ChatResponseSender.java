@@ -0,0 +1,203 @@
+package me.lebogo.twitchwhitelist;
+
+import com.github.twitch4j.chat.TwitchChat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends replies to Twitch chat through a token bucket sized to the account's chat rate limit.
+ * Pending replies from the same template are merged into one message mentioning every recipient,
+ * placeholders that differ are listed, e.g. "@a @b Whitelisted A and B!". Error replies are sent before regular ones.
+ */
+public class ChatResponseSender {
+    /**
+     * Twitch rejects chat messages longer than 500 characters
+     */
+    private static final int MAX_MESSAGE_LENGTH = 500;
+    private static final long TICK_MILLIS = 250;
+
+    private final Supplier<TwitchChat> chat;
+    private final Logger logger;
+    private final int capacity;
+    private final double tokensPerMilli;
+    private final int maxQueueSize;
+    private final LatencyHistogram sendHistogram;
+    private final Deque<PendingMessage> errors = new ArrayDeque<>();
+    private final Deque<PendingMessage> regular = new ArrayDeque<>();
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong mergedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param values Placeholder values of the template, see {@link MessageTemplate#values(MessageTemplate.Context)}
+     */
+    private record PendingMessage(String channel, String recipient, MessageTemplate template, String[] values) {
+    }
+
+    /**
+     * @param chat               Supplier of the chat connection to send through
+     * @param logger             Logger for dropped messages
+     * @param messagesPerWindow  Number of messages the account may send per window
+     * @param windowMillis       Length of the rate limit window
+     * @param maxQueueSize       Maximum number of pending replies, older regular replies are dropped beyond that
+     * @param sendHistogram      Histogram the send latency is recorded in
+     */
+    public ChatResponseSender(Supplier<TwitchChat> chat, Logger logger, int messagesPerWindow, long windowMillis, int maxQueueSize, LatencyHistogram sendHistogram) {
+        this.chat = chat;
+        this.logger = logger;
+        this.capacity = Math.max(1, messagesPerWindow);
+        this.tokensPerMilli = capacity / (double) Math.max(1, windowMillis);
+        this.maxQueueSize = Math.max(1, maxQueueSize);
+        this.sendHistogram = sendHistogram;
+        this.tokens = capacity;
+        this.lastRefill = System.currentTimeMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TwitchWhitelist-Chat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flush, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a reply to a viewer
+     *
+     * @param channel   Channel to send the reply in
+     * @param recipient Display name of the viewer, mentioned in front of the text
+     * @param template  Reply template, replies from the same template are merged
+     * @param context   Placeholder values of the reply, read before this method returns
+     * @param error     true to send the reply before regular ones
+     */
+    public void send(String channel, String recipient, MessageTemplate template, MessageTemplate.Context context, boolean error) {
+        PendingMessage message = new PendingMessage(channel, recipient, template, template.values(context));
+        synchronized (this) {
+            (error ? errors : regular).addLast(message);
+
+            while (errors.size() + regular.size() > maxQueueSize) {
+                PendingMessage dropped = regular.isEmpty() ? errors.pollFirst() : regular.pollFirst();
+                droppedCount.incrementAndGet();
+                logger.log(Level.WARNING, "Chat queue is full, dropping reply to " + dropped.recipient() + ": " + dropped.template().renderMerged(List.of(dropped.values())));
+            }
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            String channel;
+            String message;
+            synchronized (this) {
+                refill();
+                if (tokens < 1) return;
+
+                Deque<PendingMessage> queue = errors.isEmpty() ? regular : errors;
+                PendingMessage first = queue.pollFirst();
+                if (first == null) return;
+
+                channel = first.channel();
+                message = merge(first, queue);
+                tokens--;
+            }
+
+            // one failed message must not hold back the rest of the queue
+            try {
+                long start = System.nanoTime();
+                chat.get().sendMessage(channel, message);
+                sendHistogram.recordSince(start);
+                sentCount.incrementAndGet();
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Failed to send chat message: " + message, e);
+            }
+        }
+    }
+
+    /**
+     * Builds "@a @b @c text" from the first message and all queued messages with the same channel and template,
+     * placeholders that differ between them list every value
+     */
+    private String merge(PendingMessage first, Deque<PendingMessage> queue) {
+        StringBuilder mentions = new StringBuilder("@").append(first.recipient());
+        List<String[]> values = new ArrayList<>();
+        values.add(first.values());
+        String text = first.template().renderMerged(values);
+
+        Iterator<PendingMessage> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            PendingMessage next = iterator.next();
+            if (!next.channel().equals(first.channel()) || !next.template().equals(first.template())) continue;
+
+            values.add(next.values());
+            String mergedText = first.template().renderMerged(values);
+            if (mentions.length() + next.recipient().length() + 2 + mergedText.length() + 1 > MAX_MESSAGE_LENGTH) {
+                values.remove(values.size() - 1);
+                break;
+            }
+
+            mentions.append(" @").append(next.recipient());
+            text = mergedText;
+            iterator.remove();
+            mergedCount.incrementAndGet();
+        }
+
+        return mentions.append(' ').append(text).toString();
+    }
+
+    private void refill() {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMilli);
+        lastRefill = now;
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public synchronized int getQueueSize() {
+        return errors.size() + regular.size();
+    }
+
+    /**
+     * Stops the sender, sending what the rate limit still allows
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+
+        int remaining = getQueueSize();
+        if (remaining > 0) {
+            droppedCount.addAndGet(remaining);
+            logger.log(Level.WARNING, "Dropping " + remaining + " unsent chat replies.");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package me.lebogo.twitchwhitelist;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Insertion-ordered list that hands out immutable snapshots without copying its elements.
+ * <p>
+ * Elements live in fixed-size chunks that are never changed once they are full. A removal copies only the chunk it
+ * touches, and a snapshot copies the chunk references and the partly filled last chunk, so taking one after a change
+ * costs a few hundred references instead of the whole list.
+ * Not thread-safe, the stores guard it with their own lock. Snapshots can be read from any thread.
+ */
+final class ChunkedList<E> {
+    private static final int CHUNK_SIZE = 256;
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Full or shrunk chunks, never modified once added
+     */
+    private final List<Object[]> chunks = new ArrayList<>();
+    /**
+     * The chunk that is filled by {@link #add(Object)}, copied into every snapshot
+     */
+    private Object[] tail = new Object[CHUNK_SIZE];
+    private int tailSize;
+    private int size;
+    private volatile List<E> snapshot = List.of();
+
+    void add(E element) {
+        snapshot = null;
+        tail[tailSize++] = element;
+        size++;
+        if (tailSize == CHUNK_SIZE) {
+            chunks.add(tail);
+            tail = new Object[CHUNK_SIZE];
+            tailSize = 0;
+        }
+    }
+
+    /**
+     * Removes the first occurrence of an element
+     *
+     * @return false if the element is not in the list
+     */
+    boolean remove(Object element) {
+        for (int i = 0; i < chunks.size(); i++) {
+            Object[] chunk = chunks.get(i);
+            int position = indexOf(chunk, chunk.length, element);
+            if (position < 0) continue;
+
+            snapshot = null;
+            size--;
+            Object[] shrunk = new Object[chunk.length - 1];
+            System.arraycopy(chunk, 0, shrunk, 0, position);
+            System.arraycopy(chunk, position + 1, shrunk, position, shrunk.length - position);
+
+            if (shrunk.length == 0) {
+                chunks.remove(i);
+            } else if (i + 1 < chunks.size() && shrunk.length + chunks.get(i + 1).length <= CHUNK_SIZE) {
+                // merge shrunk neighbours so snapshots do not degrade to many tiny chunks
+                Object[] next = chunks.remove(i + 1);
+                Object[] merged = Arrays.copyOf(shrunk, shrunk.length + next.length);
+                System.arraycopy(next, 0, merged, shrunk.length, next.length);
+                chunks.set(i, merged);
+            } else {
+                chunks.set(i, shrunk);
+            }
+            return true;
+        }
+
+        int position = indexOf(tail, tailSize, element);
+        if (position < 0) return false;
+
+        // the tail is never shared, snapshots copy it
+        snapshot = null;
+        size--;
+        System.arraycopy(tail, position + 1, tail, position, tailSize - position - 1);
+        tail[--tailSize] = null;
+        return true;
+    }
+
+    private static int indexOf(Object[] chunk, int length, Object element) {
+        for (int i = 0; i < length; i++) {
+            if (Objects.equals(chunk[i], element)) return i;
+        }
+        return -1;
+    }
+
+    void clear() {
+        chunks.clear();
+        tail = new Object[CHUNK_SIZE];
+        tailSize = 0;
+        size = 0;
+        snapshot = List.of();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the last snapshot without locking
+     *
+     * @return Immutable list of all elements, or null if the list changed since the last snapshot was taken
+     */
+    List<E> getPublishedSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Gets an immutable snapshot of all elements, taking a new one if the list changed since the last one
+     */
+    List<E> snapshot() {
+        List<E> current = snapshot;
+        if (current != null) return current;
+
+        int chunkCount = chunks.size() + (tailSize > 0 ? 1 : 0);
+        Object[][] snapshotChunks = new Object[chunkCount][];
+        int[] offsets = new int[chunkCount];
+        int offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            snapshotChunks[i] = chunks.get(i);
+            offsets[i] = offset;
+            offset += snapshotChunks[i].length;
+        }
+        if (tailSize > 0) {
+            snapshotChunks[chunkCount - 1] = Arrays.copyOf(tail, tailSize);
+            offsets[chunkCount - 1] = offset;
+        }
+
+        current = new Snapshot<>(snapshotChunks, offsets, size);
+        snapshot = current;
+        return current;
+    }
+
+    private static final class Snapshot<E> extends AbstractList<E> implements RandomAccess {
+        private final Object[][] chunks;
+        private final int[] offsets;
+        private final int size;
+
+        private Snapshot(Object[][] chunks, int[] offsets, int size) {
+            this.chunks = chunks;
+            this.offsets = offsets;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            Objects.checkIndex(index, size);
+            // chunks are never empty, so every offset is distinct
+            int chunk = Arrays.binarySearch(offsets, index);
+            if (chunk < 0) chunk = -chunk - 2;
+            return (E) chunks[chunk][index - offsets[chunk]];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<>() {
+                private int chunk;
+                private int position;
+                private Object[] current = chunks.length == 0 ? EMPTY : chunks[0];
+
+                @Override
+                public boolean hasNext() {
+                    while (position == current.length) {
+                        if (chunk + 1 >= chunks.length) return false;
+                        current = chunks[++chunk];
+                        position = 0;
+                    }
+                    return true;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public E next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    return (E) current[position++];
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package me.lebogo.twitchwhitelist;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs console commands on the main thread. Commands can be queued from any thread
+ * and are drained once per tick until either the command count or the time budget of that tick is used up.
+ */
+public class CommandDispatcher {
+    private final Plugin plugin;
+    private final int commandsPerTick;
+    private final long tickBudgetNanos;
+    private final Queue<QueuedCommand> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LatencyHistogram waitHistogram;
+    private BukkitTask task;
+    private volatile boolean closed;
+
+    private record QueuedCommand(String command, long queuedAt, CompletableFuture<Boolean> result) {
+    }
+
+    public CommandDispatcher(Plugin plugin, int commandsPerTick, long tickBudgetMillis, LatencyHistogram waitHistogram) {
+        this.plugin = plugin;
+        this.waitHistogram = waitHistogram;
+        this.commandsPerTick = Math.max(1, commandsPerTick);
+        this.tickBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickBudgetMillis));
+    }
+
+    public void start() {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::drain, 1, 1);
+    }
+
+    /**
+     * Queues a command to be run by the console
+     *
+     * @param command Command without leading slash
+     * @return Future completing on the main thread with the result of dispatchCommand, false if the command threw.
+     * Completes exceptionally with a {@link RejectedExecutionException} if the dispatcher was shut down, the command did not run then.
+     */
+    public CompletableFuture<Boolean> dispatch(String command) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new RejectedExecutionException("The command dispatcher is shut down"));
+            return result;
+        }
+
+        queue.add(new QueuedCommand(command, System.nanoTime(), result));
+        queueSize.incrementAndGet();
+        return result;
+    }
+
+    private void drain() {
+        long start = System.nanoTime();
+        int dispatched = 0;
+
+        QueuedCommand command;
+        while (dispatched < commandsPerTick && System.nanoTime() - start < tickBudgetNanos && (command = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+            run(command);
+            dispatched++;
+        }
+    }
+
+    private void run(QueuedCommand command) {
+        long waitNanos = System.nanoTime() - command.queuedAt();
+        dispatchedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        waitHistogram.record(waitNanos);
+
+        boolean success;
+        try {
+            success = plugin.getServer().dispatchCommand(plugin.getServer().getConsoleSender(), command.command());
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to run command: " + command.command(), e);
+            success = false;
+        }
+        command.result().complete(success);
+    }
+
+    /**
+     * Gets the number of commands waiting for the main thread
+     */
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    /**
+     * Gets the average time commands waited for the main thread in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        long count = dispatchedCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / (double) count / 1_000_000d;
+    }
+
+    /**
+     * Gets the longest time a command waited for the main thread in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000d;
+    }
+
+    /**
+     * Runs all queued commands right away and rejects new ones. Must be called on the main thread.
+     */
+    public void shutdown() {
+        closed = true;
+        if (task != null) task.cancel();
+
+        QueuedCommand command;
+        while ((command = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+            run(command);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package me.lebogo.twitchwhitelist;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+
+/**
+ * Reloads config.yml into a new configuration snapshot and applies only what changed,
+ * without restarting the Twitch client. Rewards are updated in place instead of being recreated.
+ * The file is read into a private configuration, the plugin's shared one is only reloaded on the main thread.
+ */
+public class ConfigReloader {
+    private final TwitchWhitelist plugin;
+    private final RewardReconciler rewardReconciler;
+
+    public ConfigReloader(TwitchWhitelist plugin, RewardReconciler rewardReconciler) {
+        this.plugin = plugin;
+        this.rewardReconciler = rewardReconciler;
+    }
+
+    /**
+     * Reloads the configuration. Calls Helix, so it should not be run on the main thread.
+     *
+     * @return Human-readable report of what was applied
+     */
+    public synchronized List<String> reload() {
+        TwitchWhitelistConfig current = plugin.getTwitchWhitelistConfig();
+        FileConfiguration fileConfig = loadConfigFile();
+        TwitchWhitelistConfig updated = new TwitchWhitelistConfig(fileConfig);
+        List<String> report = new ArrayList<>();
+
+        if (!Objects.equals(current.getAccessToken(), updated.getAccessToken()) || channelsChanged(current, updated)) {
+            report.add("Access tokens, channel names and the list of channels can only be changed with a restart, the reload was aborted.");
+            return report;
+        }
+
+        // keep the reward IDs that are in use, even if they were edited in the file
+        for (ChannelConfig channel : current.getChannels()) {
+            fileConfig.set(channel.getPath() + "javaRewardId", channel.getJavaRewardId());
+            fileConfig.set(channel.getPath() + "bedrockRewardId", channel.getBedrockRewardId());
+        }
+        updated = new TwitchWhitelistConfig(fileConfig);
+
+        boolean rewardIdsChanged = false;
+        for (TwitchChannel channel : plugin.getChannels()) {
+            ChannelConfig channelConfig = updated.getChannel(channel.getKey());
+            try {
+                RewardReconciler.Result result = rewardReconciler.reconcile(channelConfig, channel.getChannelId());
+                report.addAll(result.actions());
+                rewardIdsChanged |= rewardReconciler.saveRewardIds(fileConfig, channelConfig, result);
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to update custom rewards of " + channelConfig.getChannelName(), e);
+                report.add("Failed to update custom rewards of " + channelConfig.getChannelName() + ": " + e.getMessage());
+            }
+        }
+        if (rewardIdsChanged) {
+            updated = new TwitchWhitelistConfig(fileConfig);
+        }
+
+        if (!mojangSettings(current).equals(mojangSettings(updated))) {
+            plugin.replaceMojangProfileResolver(updated);
+            report.add("Mojang API settings applied.");
+        }
+
+        if (current.getPlayerIndexRefreshInterval() != updated.getPlayerIndexRefreshInterval()) {
+            plugin.schedulePlayerIndexRefresh(updated);
+            report.add("Player index refresh interval applied.");
+        }
+
+        if (!restartSettings(current).equals(restartSettings(updated))) {
+            report.add("Redemption, expiry, chat, event, metrics and storage settings take effect after a restart.");
+        }
+
+        // messages, commands and checks are read from the snapshot for every redemption
+        plugin.setTwitchWhitelistConfig(updated);
+        // bring the shared config in line with the file on the main thread, Bukkit configurations are not thread-safe
+        plugin.getServer().getScheduler().runTask(plugin, plugin::reloadConfig);
+        report.add("Configuration reloaded.");
+
+        for (String line : report) {
+            plugin.getLogger().log(Level.INFO, line);
+        }
+        return report;
+    }
+
+    /**
+     * Reads config.yml with the bundled defaults, without touching the plugin's shared configuration
+     */
+    private FileConfiguration loadConfigFile() {
+        YamlConfiguration fileConfig = YamlConfiguration.loadConfiguration(new File(plugin.getDataFolder(), "config.yml"));
+        try (InputStream defaults = plugin.getResource("config.yml")) {
+            if (defaults != null) {
+                fileConfig.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to read the default configuration", e);
+        }
+        return fileConfig;
+    }
+
+    /**
+     * Settings the Mojang profile resolver is built from
+     */
+    private static List<Object> mojangSettings(TwitchWhitelistConfig config) {
+        return Arrays.asList(config.getMojangApiUrl(), config.getMojangTimeout(), config.getMojangCacheSize(),
+                config.getMojangCacheTtl(), config.getMojangNegativeCacheTtl());
+    }
+
+    /**
+     * Settings that are only read on startup, a change is reported as needing a restart
+     */
+    private static List<Object> restartSettings(TwitchWhitelistConfig config) {
+        return Arrays.asList(
+                config.getRedemptionConcurrency(), config.getRedemptionQueueSize(),
+                config.getRedemptionStatusBatchWindow(), config.getRedemptionStatusBatchSize(), config.getRedemptionSweepInterval(),
+                config.getExpireAfterDays(), config.getExpireAfterInactiveDays(), config.getAllowRedeemAfterExpiry(),
+                config.getExpiryCheckInterval(), config.getExpiryBatchSize(),
+                config.getCommandsPerTick(), config.getCommandTickBudget(),
+                config.getChatMessagesPerWindow(), config.getChatQueueSize(),
+                config.getEventTransport(), config.getEventSubUrl(), config.getHelixUrl(),
+                config.getMetricsPort(), config.getMetricsBindAddress(),
+                config.getPersistenceMode(), config.getJournalCompactionThreshold(), config.getSnapshotFormat(),
+                config.getDatabaseUrl(), config.getDatabaseUsername(), config.getDatabasePassword(), config.getDatabasePoolSize());
+    }
+
+    /**
+     * Checks if a channel was added, removed or points to another Twitch account
+     */
+    private static boolean channelsChanged(TwitchWhitelistConfig current, TwitchWhitelistConfig updated) {
+        List<ChannelConfig> currentChannels = current.getChannels();
+        List<ChannelConfig> updatedChannels = updated.getChannels();
+        if (currentChannels.size() != updatedChannels.size()) return true;
+
+        for (ChannelConfig channel : currentChannels) {
+            ChannelConfig other = updated.getChannel(channel.getKey());
+            if (other == null || !Objects.equals(channel.getChannelName(), other.getChannelName()) || !Objects.equals(channel.getAccessToken(), other.getAccessToken())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,493 @@
+package me.lebogo.twitchwhitelist;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Store backed by a JDBC database, so several servers pointed at the same database share one set of whitelistings.
+ * <p>
+ * All whitelistings of the channel are loaded into memory on startup and queries are answered from there.
+ * A Twitch user that is not known locally is looked up in the database, which picks up redemptions made on other servers.
+ * A redemption in progress claims its row with a synchronous insert when it is reserved, so the unique key on channel
+ * and Twitch login lets only one server fulfil a viewer. A claim that survived a crash is taken over by
+ * {@link #reclaim(TwitchWhitelisting)} when its redemption is resumed.
+ * <p>
+ * Changes are written by a single thread that commits everything queued since its last commit as one batch.
+ * If the database has no whitelistings for the channel yet, the YAML file is imported once.
+ */
+public class JdbcWhitelistingStore implements WhitelistingStore {
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS twitchwhitelist_whitelistings ("
+            + "channel_key VARCHAR(64) NOT NULL, "
+            + "twitch_login VARCHAR(64) NOT NULL, "
+            + "twitch_username VARCHAR(64) NOT NULL, "
+            + "minecraft_username VARCHAR(64) NOT NULL, "
+            + "whitelist_date BIGINT NOT NULL, "
+            + "is_java BOOLEAN NOT NULL, "
+            + "CONSTRAINT twitchwhitelist_unique_login UNIQUE (channel_key, twitch_login))";
+    private static final String SELECT_ALL = "SELECT twitch_username, minecraft_username, whitelist_date, is_java FROM twitchwhitelist_whitelistings WHERE channel_key = ?";
+    private static final String SELECT_LOGIN = "SELECT twitch_username, minecraft_username, whitelist_date, is_java FROM twitchwhitelist_whitelistings WHERE channel_key = ? AND twitch_login = ?";
+    private static final String INSERT = "INSERT INTO twitchwhitelist_whitelistings (channel_key, twitch_login, twitch_username, minecraft_username, whitelist_date, is_java) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM twitchwhitelist_whitelistings WHERE channel_key = ? AND twitch_login = ? AND minecraft_username = ?";
+
+    /**
+     * A queued change, or a flush marker without whitelisting that completes once everything before it is committed
+     */
+    private record Write(TwitchWhitelisting whitelisting, boolean add, CompletableFuture<Void> flushed) {
+    }
+
+    /**
+     * Marker that tells the writer thread to stop after the writes queued before it
+     */
+    private static final Write CLOSE = new Write(null, false, null);
+
+    private final DataSource dataSource;
+    private final String channelKey;
+    private final Path exportPath;
+    private final Logger logger;
+    private final WhitelistingIndex index = new WhitelistingIndex();
+    private final Set<String> reservations = ConcurrentHashMap.newKeySet();
+    /**
+     * Logins whose whitelisting was inserted by {@link #reserve(TwitchWhitelisting)} but not added yet
+     */
+    private final Set<String> claims = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> pendingRemovals = new HashMap<>();
+    private final BlockingQueue<Write> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    /**
+     * Creates the table if needed and loads the whitelistings of a channel
+     *
+     * @param dataSource Pooled connections to the database
+     * @param channelKey Key of the channel, whitelistings of all channels share one table
+     * @param exportPath Path {@link #exportYaml()} writes to
+     * @param logger     Logger for write failures
+     * @throws SQLException if the database can not be reached
+     */
+    public JdbcWhitelistingStore(DataSource dataSource, String channelKey, Path exportPath, Logger logger) throws SQLException {
+        this.dataSource = dataSource;
+        this.channelKey = channelKey;
+        this.exportPath = exportPath;
+        this.logger = logger;
+
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_TABLE);
+            }
+            try (PreparedStatement select = connection.prepareStatement(SELECT_ALL)) {
+                select.setString(1, channelKey);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        index.add(read(rows));
+                    }
+                }
+            }
+        }
+
+        // the first server that uses the database brings its YAML whitelistings along
+        if (index.isEmpty() && Files.exists(exportPath)) {
+            List<?> stored = YamlConfiguration.loadConfiguration(exportPath.toFile()).getList("whitelistings");
+            if (stored != null) {
+                for (Object entry : stored) {
+                    if (entry instanceof TwitchWhitelisting whitelisting && !index.hasTwitchUsername(whitelisting.twitchUsername())) {
+                        index.add(whitelisting);
+                        pending.add(new Write(whitelisting, true, null));
+                    }
+                }
+                logger.log(Level.INFO, "Importing " + pending.size() + " whitelisting(s) from " + exportPath.getFileName() + " into the database.");
+            }
+        }
+
+        writer = Thread.ofPlatform().name("TwitchWhitelist-Database-" + channelKey).daemon(true).start(this::write);
+    }
+
+    private static TwitchWhitelisting read(ResultSet row) throws SQLException {
+        return new TwitchWhitelisting(row.getString(1), row.getString(2), new Date(row.getLong(3)), row.getBoolean(4));
+    }
+
+    /**
+     * Returns the published snapshot without locking, only the first call after a change takes a new one
+     */
+    @Override
+    public List<TwitchWhitelisting> getWhitelistings() {
+        List<TwitchWhitelisting> snapshot = index.getPublishedSnapshot();
+        if (snapshot != null) return snapshot;
+
+        synchronized (this) {
+            return index.getWhitelistings();
+        }
+    }
+
+    /**
+     * Falls back to the database for users that are not known locally, their whitelisting may have been redeemed on another server
+     */
+    @Override
+    public TwitchWhitelisting getByTwitchUsername(String twitchUsername) {
+        String login = WhitelistingIndex.normalize(twitchUsername);
+        synchronized (this) {
+            TwitchWhitelisting whitelisting = index.getByTwitchUsername(login);
+            // a removal that is not committed yet must not be loaded back, neither must the row of a claim in progress
+            if (whitelisting != null || pendingRemovals.containsKey(login) || claims.contains(login)) return whitelisting;
+        }
+
+        TwitchWhitelisting remote;
+        try {
+            remote = selectStored(login);
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "Failed to look up " + twitchUsername + " in the database: " + e.getMessage());
+            return null;
+        }
+        if (remote == null) return null;
+
+        synchronized (this) {
+            TwitchWhitelisting whitelisting = index.getByTwitchUsername(login);
+            if (whitelisting != null || pendingRemovals.containsKey(login) || claims.contains(login)) return whitelisting;
+            index.add(remote);
+            return remote;
+        }
+    }
+
+    @Override
+    public boolean hasTwitchUsername(String twitchUsername) {
+        return getByTwitchUsername(twitchUsername) != null;
+    }
+
+    /**
+     * Besides the local reservation the whitelisting is inserted right away, the unique key makes sure
+     * only one server can claim a viewer. The row is kept if the whitelisting is added, deleted on release otherwise.
+     */
+    @Override
+    public Reservation reserve(TwitchWhitelisting twitchWhitelisting) {
+        String login = WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername());
+        if (!reservations.add(login)) return Reservation.BUSY;
+        // checked after reserving, a whitelisting added by the previous holder is visible before it released the user
+        Reservation reservation = hasTwitchUsername(login) ? Reservation.REDEEMED : claim(twitchWhitelisting);
+        if (reservation != Reservation.GRANTED) {
+            reservations.remove(login);
+            return reservation;
+        }
+        claims.add(login);
+        return reservation;
+    }
+
+    private Reservation claim(TwitchWhitelisting twitchWhitelisting) {
+        String login = WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername());
+        boolean removalPending;
+        synchronized (this) {
+            removalPending = pendingRemovals.containsKey(login);
+        }
+        // the row of a removed whitelisting has to be gone before it can be claimed again
+        if (removalPending) save();
+
+        Write change = new Write(twitchWhitelisting, true, null);
+        try (Connection connection = dataSource.getConnection(); PreparedStatement insert = connection.prepareStatement(INSERT)) {
+            bind(insert, change);
+            insert.executeUpdate();
+            return Reservation.GRANTED;
+        } catch (SQLException e) {
+            TwitchWhitelisting stored = selectStoredQuietly(login);
+            if (stored != null) {
+                logger.log(Level.INFO, twitchWhitelisting.twitchUsername() + " already redeemed a whitelisting on another server.");
+                synchronized (this) {
+                    if (index.getByTwitchUsername(login) == null && !pendingRemovals.containsKey(login)) index.add(stored);
+                }
+                return Reservation.REDEEMED;
+            }
+            logger.log(Level.SEVERE, "Failed to claim the whitelisting of " + twitchWhitelisting.twitchUsername() + " in the database", e);
+            return Reservation.FAILED;
+        }
+    }
+
+    /**
+     * A stored row for the same Minecraft username and edition is the claim of the resumed redemption.
+     * It was loaded like a whitelisting on startup and is taken back out of the index.
+     */
+    @Override
+    public Reservation reclaim(TwitchWhitelisting twitchWhitelisting) {
+        String login = WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername());
+        if (!reservations.add(login)) return Reservation.BUSY;
+
+        TwitchWhitelisting stored;
+        try {
+            stored = selectStored(login);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to look up the claim of " + twitchWhitelisting.twitchUsername() + " in the database", e);
+            reservations.remove(login);
+            return Reservation.FAILED;
+        }
+
+        if (stored == null || stored.isJava() != twitchWhitelisting.isJava() || !stored.minecraftUsername().equalsIgnoreCase(twitchWhitelisting.minecraftUsername())) {
+            reservations.remove(login);
+            return reserve(twitchWhitelisting);
+        }
+
+        synchronized (this) {
+            TwitchWhitelisting loaded = index.getByTwitchUsername(login);
+            if (loaded != null) index.remove(loaded);
+            claims.add(login);
+        }
+        return Reservation.GRANTED;
+    }
+
+    @Override
+    public boolean release(TwitchWhitelisting twitchWhitelisting) {
+        String login = WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername());
+        boolean dropped = claims.remove(login);
+        if (dropped) {
+            // the redemption did not go through, give the claimed row back
+            synchronized (this) {
+                pendingRemovals.merge(login, 1, Integer::sum);
+                pending.add(new Write(twitchWhitelisting, false, null));
+            }
+        }
+        reservations.remove(login);
+        return dropped;
+    }
+
+    @Override
+    public synchronized List<TwitchWhitelisting> getByMinecraftUsername(String minecraftUsername) {
+        return index.getByMinecraftUsername(minecraftUsername);
+    }
+
+    @Override
+    public synchronized List<TwitchWhitelisting> getByEdition(boolean isJava) {
+        return index.getByEdition(isJava);
+    }
+
+    @Override
+    public synchronized int completeTwitchUsername(String prefix, int limit, Collection<String> out) {
+        return index.completeTwitchUsername(prefix, limit, out);
+    }
+
+    @Override
+    public synchronized int completeMinecraftUsername(String prefix, int limit, Collection<String> out) {
+        return index.completeMinecraftUsername(prefix, limit, out);
+    }
+
+    @Override
+    public synchronized int collectByTwitchUsername(String prefix, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectByTwitchUsername(prefix, skip, limit, out);
+    }
+
+    @Override
+    public synchronized int collectByMinecraftUsername(String minecraftUsername, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectByMinecraftUsername(minecraftUsername, skip, limit, out);
+    }
+
+    @Override
+    public synchronized int collectSince(Date since, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectSince(since, skip, limit, out);
+    }
+
+    @Override
+    public synchronized int collectByEdition(boolean isJava, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectByEdition(isJava, skip, limit, out);
+    }
+
+    @Override
+    public synchronized void addWhitelisting(TwitchWhitelisting twitchWhitelisting) {
+        index.add(twitchWhitelisting);
+        // a reserved whitelisting was inserted when it was claimed
+        if (claims.remove(WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername()))) return;
+        pending.add(new Write(twitchWhitelisting, true, null));
+    }
+
+    @Override
+    public synchronized void removeWhitelisting(TwitchWhitelisting twitchWhitelisting) {
+        if (!index.remove(twitchWhitelisting)) return;
+        pendingRemovals.merge(WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername()), 1, Integer::sum);
+        pending.add(new Write(twitchWhitelisting, false, null));
+    }
+
+    /**
+     * Waits until the changes made so far are committed. Concurrent callers share one commit.
+     */
+    @Override
+    public void save() {
+        if (!writer.isAlive()) return;
+
+        CompletableFuture<Void> flushed = new CompletableFuture<>();
+        pending.add(new Write(null, false, flushed));
+        try {
+            flushed.get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Timed out waiting for whitelistings to be written to the database");
+        }
+    }
+
+    private void write() {
+        List<Write> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            boolean closing = false;
+            List<Write> changes = new ArrayList<>(batch.size());
+            for (Write write : batch) {
+                if (write == CLOSE) closing = true;
+                else if (write.whitelisting() != null) changes.add(write);
+            }
+
+            if (!changes.isEmpty()) {
+                try {
+                    commit(changes);
+                } catch (SQLException e) {
+                    // one conflicting row fails the whole batch, retry the rows one by one to keep the others
+                    for (Write change : changes) {
+                        commitSingle(change);
+                    }
+                }
+
+                synchronized (this) {
+                    for (Write change : changes) {
+                        if (!change.add()) pendingRemovals.computeIfPresent(WhitelistingIndex.normalize(change.whitelisting().twitchUsername()), (login, count) -> count > 1 ? count - 1 : null);
+                    }
+                }
+            }
+
+            for (Write write : batch) {
+                if (write.flushed() != null) write.flushed().complete(null);
+            }
+            batch.clear();
+
+            if (closing) return;
+        }
+    }
+
+    /**
+     * Commits a batch in one transaction. Consecutive inserts and deletes are sent as JDBC batches, in queue order.
+     */
+    private void commit(List<Write> changes) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(INSERT); PreparedStatement delete = connection.prepareStatement(DELETE)) {
+                PreparedStatement current = null;
+                for (Write change : changes) {
+                    PreparedStatement statement = change.add() ? insert : delete;
+                    if (current != null && current != statement) current.executeBatch();
+                    bind(statement, change);
+                    statement.addBatch();
+                    current = statement;
+                }
+                if (current != null) current.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void commitSingle(Write change) {
+        TwitchWhitelisting whitelisting = change.whitelisting();
+        try (Connection connection = dataSource.getConnection(); PreparedStatement statement = connection.prepareStatement(change.add() ? INSERT : DELETE)) {
+            bind(statement, change);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            TwitchWhitelisting stored = change.add() ? selectStoredQuietly(WhitelistingIndex.normalize(whitelisting.twitchUsername())) : null;
+            if (stored != null) {
+                logger.log(Level.WARNING, whitelisting.twitchUsername() + " already redeemed a whitelisting on another server, keeping the stored one.");
+                synchronized (this) {
+                    if (index.remove(whitelisting)) index.add(stored);
+                }
+            } else {
+                logger.log(Level.SEVERE, "Failed to write the whitelisting of " + whitelisting.twitchUsername() + " to the database", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the stored whitelisting of a Twitch login
+     *
+     * @return The whitelisting or null if the database has none
+     */
+    private TwitchWhitelisting selectStored(String login) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); PreparedStatement select = connection.prepareStatement(SELECT_LOGIN)) {
+            select.setString(1, channelKey);
+            select.setString(2, login);
+            try (ResultSet rows = select.executeQuery()) {
+                return rows.next() ? read(rows) : null;
+            }
+        }
+    }
+
+    private TwitchWhitelisting selectStoredQuietly(String login) {
+        try {
+            return selectStored(login);
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private void bind(PreparedStatement statement, Write change) throws SQLException {
+        TwitchWhitelisting whitelisting = change.whitelisting();
+        statement.setString(1, channelKey);
+        statement.setString(2, WhitelistingIndex.normalize(whitelisting.twitchUsername()));
+        if (change.add()) {
+            statement.setString(3, whitelisting.twitchUsername());
+            statement.setString(4, whitelisting.minecraftUsername());
+            statement.setLong(5, whitelisting.whitelistDate().getTime());
+            statement.setBoolean(6, whitelisting.isJava());
+        } else {
+            statement.setString(3, whitelisting.minecraftUsername());
+        }
+    }
+
+    @Override
+    public Path exportYaml() throws Exception {
+        List<TwitchWhitelisting> snapshot = getWhitelistings();
+        Path temporaryPath = exportPath.resolveSibling(exportPath.getFileName() + ".export.tmp");
+        YamlConfiguration exportConfig = new YamlConfiguration();
+        exportConfig.set("whitelistings", snapshot);
+        exportConfig.save(temporaryPath.toFile());
+        Files.move(temporaryPath, exportPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return exportPath;
+    }
+
+    /**
+     * Commits the remaining changes and stops the writer thread. The data source is owned by the caller.
+     */
+    @Override
+    public void close() {
+        if (!writer.isAlive()) return;
+
+        pending.add(CLOSE);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
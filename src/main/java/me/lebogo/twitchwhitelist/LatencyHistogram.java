@@ -0,0 +1,102 @@
+package me.lebogo.twitchwhitelist;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed buckets. Recording only increments striped counters, so it does not allocate
+ * and does not contend between threads.
+ */
+public class LatencyHistogram {
+    /**
+     * Upper bounds of the buckets in milliseconds, a last bucket catches everything above
+     */
+    private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_MILLIS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BOUNDS_MILLIS[i]);
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a latency
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) bucket++;
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time since a {@link System#nanoTime()} start value
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) count += bucket.sum();
+        return count;
+    }
+
+    public double getAverageMillis() {
+        long count = getCount();
+        return count == 0 ? 0 : sumNanos.sum() / (double) count / 1_000_000d;
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls into
+     *
+     * @param percentile Percentile between 0 and 1
+     * @return Upper bound in milliseconds, -1 if it lies above the last bound
+     */
+    public long getPercentileMillis(double percentile) {
+        long count = getCount();
+        if (count == 0) return 0;
+
+        long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= target) return BOUNDS_MILLIS[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the histogram in Prometheus text format
+     *
+     * @param out  Target
+     * @param name Metric name without unit suffix
+     * @param help Description of the metric
+     */
+    public void writePrometheus(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append("_seconds ").append(help).append('\n');
+        out.append("# TYPE ").append(name).append("_seconds histogram\n");
+
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_seconds_bucket{le=\"").append(BOUNDS_MILLIS[i] / 1000d).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[BOUNDS_MILLIS.length].sum();
+        out.append(name).append("_seconds_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_seconds_sum ").append(sumNanos.sum() / 1_000_000_000d).append('\n');
+        out.append(name).append("_seconds_count ").append(cumulative).append('\n');
+    }
+}
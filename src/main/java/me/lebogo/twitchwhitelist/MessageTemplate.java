@@ -0,0 +1,254 @@
+package me.lebogo.twitchwhitelist;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A message or command template parsed once into literal and placeholder segments.
+ * Supported placeholders are {username}, {twitch}, {display}, {uuid}, {edition} and {cost},
+ * unknown placeholders are kept as they are.
+ */
+public final class MessageTemplate {
+    public enum Placeholder {
+        USERNAME("username"),
+        TWITCH("twitch"),
+        DISPLAY("display"),
+        UUID("uuid"),
+        EDITION("edition"),
+        COST("cost");
+
+        private final String key;
+
+        Placeholder(String key) {
+            this.key = key;
+        }
+
+        private static Placeholder of(String key) {
+            for (Placeholder placeholder : values()) {
+                if (placeholder.key.equals(key)) return placeholder;
+            }
+            return null;
+        }
+    }
+
+    private final String source;
+    /**
+     * literals[i] is followed by placeholders[i], the last literal has no placeholder after it
+     */
+    private final String[] literals;
+    private final Placeholder[] placeholders;
+    private final int literalLength;
+
+    private MessageTemplate(String source, String[] literals, Placeholder[] placeholders) {
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+
+        int length = 0;
+        for (String literal : literals) length += literal.length();
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses a chat message template
+     *
+     * @param template Template text, null is treated as empty
+     * @return Compiled template
+     */
+    public static MessageTemplate compile(String template) {
+        if (template == null) template = "";
+
+        List<String> literals = new ArrayList<>();
+        List<Placeholder> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        int index = 0;
+        while (index < template.length()) {
+            int open = template.indexOf('{', index);
+            int close = open < 0 ? -1 : template.indexOf('}', open);
+            if (close < 0) {
+                literal.append(template, index, template.length());
+                break;
+            }
+
+            Placeholder placeholder = Placeholder.of(template.substring(open + 1, close));
+            if (placeholder == null) {
+                // not one of ours, keep the brace and continue after it
+                literal.append(template, index, open + 1);
+                index = open + 1;
+                continue;
+            }
+
+            literal.append(template, index, open);
+            literals.add(literal.toString());
+            placeholders.add(placeholder);
+            literal.setLength(0);
+            index = close + 1;
+        }
+        literals.add(literal.toString());
+
+        return new MessageTemplate(template, literals.toArray(String[]::new), placeholders.toArray(Placeholder[]::new));
+    }
+
+    /**
+     * Parses a command template, removing the leading slash if it exists
+     *
+     * @param template Command template text
+     * @return Compiled template
+     */
+    public static MessageTemplate compileCommand(String template) {
+        if (template != null && template.startsWith("/")) template = template.substring(1);
+        return compile(template);
+    }
+
+    /**
+     * Renders the template with the values of a context
+     *
+     * @param context Placeholder values
+     * @return Rendered text
+     */
+    public String render(Context context) {
+        if (placeholders.length == 0) return literals[0];
+
+        StringBuilder builder = context.builder;
+        builder.setLength(0);
+        builder.ensureCapacity(literalLength + placeholders.length * 16);
+
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(literals[i]);
+            context.append(builder, placeholders[i]);
+        }
+        builder.append(literals[literals.length - 1]);
+
+        return builder.toString();
+    }
+
+    /**
+     * Gets the rendered value of every placeholder in order, to merge several renderings with {@link #renderMerged(List)}
+     *
+     * @param context Placeholder values
+     * @return One value per placeholder
+     */
+    public String[] values(Context context) {
+        String[] values = new String[placeholders.length];
+        StringBuilder builder = context.builder;
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.setLength(0);
+            context.append(builder, placeholders[i]);
+            values[i] = builder.toString();
+        }
+        return values;
+    }
+
+    /**
+     * Renders the template once for several sets of placeholder values.
+     * A placeholder with different values lists all of them, e.g. "A, B and C".
+     *
+     * @param values Values from {@link #values(Context)}
+     * @return Rendered text
+     */
+    public String renderMerged(List<String[]> values) {
+        StringBuilder builder = new StringBuilder(literalLength + placeholders.length * 16 * values.size());
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(literals[i]);
+
+            Set<String> distinct = new LinkedHashSet<>();
+            for (String[] value : values) distinct.add(value[i]);
+            int index = 0;
+            for (String value : distinct) {
+                if (index > 0) builder.append(index == distinct.size() - 1 ? " and " : ", ");
+                builder.append(value);
+                index++;
+            }
+        }
+        builder.append(literals[literals.length - 1]);
+
+        return builder.toString();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MessageTemplate other && source.equals(other.source);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Reusable set of placeholder values. A context is not thread-safe, use one per thread.
+     */
+    public static final class Context {
+        private final StringBuilder builder = new StringBuilder(64);
+        private String username;
+        private String twitch;
+        private String display;
+        private UUID uuid;
+        private boolean isJava;
+        private int cost;
+
+        public Context reset() {
+            username = null;
+            twitch = null;
+            display = null;
+            uuid = null;
+            isJava = true;
+            cost = 0;
+            return this;
+        }
+
+        public Context username(String username) {
+            this.username = username;
+            return this;
+        }
+
+        public Context twitch(String twitch) {
+            this.twitch = twitch;
+            return this;
+        }
+
+        public Context display(String display) {
+            this.display = display;
+            return this;
+        }
+
+        public Context uuid(UUID uuid) {
+            this.uuid = uuid;
+            return this;
+        }
+
+        public Context isJava(boolean isJava) {
+            this.isJava = isJava;
+            return this;
+        }
+
+        public Context cost(int cost) {
+            this.cost = cost;
+            return this;
+        }
+
+        private void append(StringBuilder builder, Placeholder placeholder) {
+            switch (placeholder) {
+                case USERNAME -> builder.append(username == null ? "" : username);
+                case TWITCH -> builder.append(twitch == null ? "" : twitch);
+                case DISPLAY -> builder.append(display == null ? "" : display);
+                case UUID -> builder.append(uuid == null ? "" : uuid.toString());
+                case EDITION -> builder.append(isJava ? "Java" : "Bedrock");
+                case COST -> builder.append(cost);
+            }
+        }
+    }
+}
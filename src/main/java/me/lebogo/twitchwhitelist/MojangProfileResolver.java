@@ -0,0 +1,232 @@
+package me.lebogo.twitchwhitelist;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves Minecraft Java Edition usernames to UUIDs through the Mojang profile API.
+ * Results are kept in a bounded LRU cache, unknown names are cached for a shorter time than known ones.
+ * Concurrent lookups for the same name share one request and the cache is persisted across restarts.
+ */
+public class MojangProfileResolver {
+    private static final Pattern VALID_USERNAME = Pattern.compile("^[A-Za-z0-9_]{1,16}$");
+    private static final Pattern PROFILE_ID = Pattern.compile("\"id\"\\s*:\\s*\"([0-9a-fA-F]{32})\"");
+
+    private final String apiUrl;
+    private final Duration timeout;
+    private final long positiveTtlMillis;
+    private final long negativeTtlMillis;
+    private final Path cachePath;
+    private final Logger logger;
+    private final HttpClient httpClient;
+    private final Map<String, CachedProfile> cache;
+    private final Map<String, CompletableFuture<Optional<UUID>>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param uuid      UUID of the profile, null if the name does not exist
+     * @param expiresAt Epoch millis after which the entry is looked up again
+     */
+    private record CachedProfile(UUID uuid, long expiresAt) {
+    }
+
+    /**
+     * @param apiUrl            Base URL of the Mojang API, e.g. https://api.mojang.com
+     * @param timeout           Connect and response timeout
+     * @param maxSize           Maximum number of cached names
+     * @param positiveTtlMillis How long existing names are cached
+     * @param negativeTtlMillis How long unknown names are cached
+     * @param cachePath         File the cache is persisted to, null to keep it in memory only
+     */
+    public MojangProfileResolver(String apiUrl, Duration timeout, int maxSize, long positiveTtlMillis, long negativeTtlMillis, Path cachePath) {
+        this(apiUrl, timeout, maxSize, positiveTtlMillis, negativeTtlMillis, cachePath, Logger.getLogger(MojangProfileResolver.class.getName()));
+    }
+
+    /**
+     * Creates a resolver that reports cache file failures to the given logger
+     *
+     * @see #MojangProfileResolver(String, Duration, int, long, long, Path)
+     */
+    public MojangProfileResolver(String apiUrl, Duration timeout, int maxSize, long positiveTtlMillis, long negativeTtlMillis, Path cachePath, Logger logger) {
+        this.logger = logger;
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl;
+        this.timeout = timeout;
+        this.positiveTtlMillis = positiveTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.cachePath = cachePath;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).followRedirects(HttpClient.Redirect.NORMAL).build();
+        this.cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedProfile> eldest) {
+                return size() > maxSize;
+            }
+        };
+
+        load();
+    }
+
+    /**
+     * Resolves a username to its profile UUID
+     *
+     * @param username Minecraft Java Edition username
+     * @return Future with the UUID, empty if the name does not exist.
+     * Completes exceptionally if the API could not be reached or answered with an unexpected status.
+     */
+    public CompletableFuture<Optional<UUID>> resolve(String username) {
+        if (username == null || !VALID_USERNAME.matcher(username).matches()) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        String key = username.toLowerCase(Locale.ROOT);
+        CachedProfile cached = getCached(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Optional.ofNullable(cached.uuid()));
+        }
+
+        CompletableFuture<Optional<UUID>> created = new CompletableFuture<>();
+        CompletableFuture<Optional<UUID>> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) return existing;
+
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(apiUrl + "/users/profiles/minecraft/" + key)).timeout(timeout).GET().build();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, throwable) -> {
+                try {
+                    complete(key, created, response, throwable);
+                } finally {
+                    // only after the result is cached, so a lookup in between cannot start a second request
+                    inFlight.remove(key, created);
+                }
+            });
+        } catch (RuntimeException e) {
+            // an invalid API URL or a closed client, the future would otherwise stay in flight forever
+            created.completeExceptionally(e);
+            inFlight.remove(key, created);
+        }
+
+        return created;
+    }
+
+    private void complete(String key, CompletableFuture<Optional<UUID>> future, HttpResponse<String> response, Throwable throwable) {
+        if (throwable != null) {
+            future.completeExceptionally(throwable);
+            return;
+        }
+
+        int status = response.statusCode();
+        if (status == 200) {
+            Matcher matcher = PROFILE_ID.matcher(response.body());
+            if (!matcher.find()) {
+                future.completeExceptionally(new IOException("Unexpected Mojang profile response: " + response.body()));
+                return;
+            }
+            UUID uuid = parseUuid(matcher.group(1));
+            putCached(key, new CachedProfile(uuid, System.currentTimeMillis() + positiveTtlMillis));
+            future.complete(Optional.of(uuid));
+        } else if (status == 204 || status == 404) {
+            putCached(key, new CachedProfile(null, System.currentTimeMillis() + negativeTtlMillis));
+            future.complete(Optional.empty());
+        } else {
+            future.completeExceptionally(new IOException("Mojang API responded with status " + status));
+        }
+    }
+
+    private synchronized CachedProfile getCached(String key) {
+        CachedProfile cached = cache.get(key);
+        if (cached == null) return null;
+        if (cached.expiresAt() < System.currentTimeMillis()) {
+            cache.remove(key);
+            return null;
+        }
+        return cached;
+    }
+
+    private synchronized void putCached(String key, CachedProfile profile) {
+        cache.put(key, profile);
+    }
+
+    private static UUID parseUuid(String id) {
+        return new UUID(Long.parseUnsignedLong(id.substring(0, 16), 16), Long.parseUnsignedLong(id.substring(16), 16));
+    }
+
+    // ----------------- Persistence -----------------
+
+    private synchronized void load() {
+        if (cachePath == null || !Files.exists(cachePath)) return;
+
+        long now = System.currentTimeMillis();
+        try (BufferedReader reader = Files.newBufferedReader(cachePath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 3) continue;
+
+                try {
+                    long expiresAt = Long.parseLong(fields[2]);
+                    if (expiresAt < now) continue;
+                    UUID uuid = "-".equals(fields[1]) ? null : UUID.fromString(fields[1]);
+                    cache.put(fields[0], new CachedProfile(uuid, expiresAt));
+                } catch (IllegalArgumentException ignored) {
+                    // skip malformed entries
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to read the Mojang profile cache from " + cachePath, e);
+        }
+    }
+
+    /**
+     * Writes the cache to disk
+     */
+    public void save() {
+        if (cachePath == null) return;
+
+        List<Map.Entry<String, CachedProfile>> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(cache.entrySet());
+        }
+
+        Path temporaryPath = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, CachedProfile> entry : entries) {
+                CachedProfile profile = entry.getValue();
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(profile.uuid() == null ? "-" : profile.uuid().toString());
+                writer.write('\t');
+                writer.write(Long.toString(profile.expiresAt()));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to write the Mojang profile cache to " + temporaryPath, e);
+            return;
+        }
+
+        try {
+            Files.move(temporaryPath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to replace the Mojang profile cache at " + cachePath, e);
+        }
+    }
+}
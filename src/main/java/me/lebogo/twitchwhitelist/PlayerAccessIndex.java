@@ -0,0 +1,137 @@
+package me.lebogo.twitchwhitelist;
+
+import io.papermc.paper.event.server.WhitelistStateUpdateEvent;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.server.ServerCommandEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thread-safe, case-insensitive index of whitelisted and banned players.
+ * The index is rebuilt on the main thread at startup, after whitelist or ban commands and periodically,
+ * and can then be queried from any thread without touching the server's player lists.
+ * Only commands typed by players or the console are seen here. {@code Server.dispatchCommand} fires no
+ * {@link ServerCommandEvent}, so code that dispatches an access command itself has to call {@link #requestRefresh()}.
+ */
+public class PlayerAccessIndex implements Listener {
+    private static final Set<String> ACCESS_COMMANDS = Set.of("whitelist", "ban", "ban-ip", "pardon", "pardon-ip", "unban");
+
+    private final Plugin plugin;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+    private volatile Set<String> whitelistedNames = ConcurrentHashMap.newKeySet();
+    private volatile Set<UUID> whitelistedIds = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> bannedNames = ConcurrentHashMap.newKeySet();
+    private volatile Set<UUID> bannedIds = ConcurrentHashMap.newKeySet();
+
+    public PlayerAccessIndex(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Rebuilds the index from the server's whitelist and ban list. Must be called on the main thread.
+     */
+    public void refresh() {
+        refreshScheduled.set(false);
+
+        Set<String> newWhitelistedNames = ConcurrentHashMap.newKeySet();
+        Set<UUID> newWhitelistedIds = ConcurrentHashMap.newKeySet();
+        for (OfflinePlayer player : plugin.getServer().getWhitelistedPlayers()) {
+            if (player.getName() != null) newWhitelistedNames.add(normalize(player.getName()));
+            newWhitelistedIds.add(player.getUniqueId());
+        }
+
+        Set<String> newBannedNames = ConcurrentHashMap.newKeySet();
+        Set<UUID> newBannedIds = ConcurrentHashMap.newKeySet();
+        for (OfflinePlayer player : plugin.getServer().getBannedPlayers()) {
+            if (player.getName() != null) newBannedNames.add(normalize(player.getName()));
+            newBannedIds.add(player.getUniqueId());
+        }
+
+        whitelistedNames = newWhitelistedNames;
+        whitelistedIds = newWhitelistedIds;
+        bannedNames = newBannedNames;
+        bannedIds = newBannedIds;
+    }
+
+    /**
+     * Schedules a refresh on the next tick. Multiple requests within one tick result in a single refresh.
+     * Required after dispatching a whitelist or ban command through the API, no command event reports it.
+     */
+    public void requestRefresh() {
+        if (refreshScheduled.compareAndSet(false, true)) {
+            plugin.getServer().getScheduler().runTask(plugin, this::refresh);
+        }
+    }
+
+    public boolean isWhitelisted(String name) {
+        return name != null && whitelistedNames.contains(normalize(name));
+    }
+
+    public boolean isWhitelisted(UUID uuid) {
+        return uuid != null && whitelistedIds.contains(uuid);
+    }
+
+    public boolean isBanned(String name) {
+        return name != null && bannedNames.contains(normalize(name));
+    }
+
+    public boolean isBanned(UUID uuid) {
+        return uuid != null && bannedIds.contains(uuid);
+    }
+
+    // ----------------- Listeners -----------------
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWhitelistStateUpdate(WhitelistStateUpdateEvent event) {
+        String name = event.getPlayerProfile().getName();
+        UUID uuid = event.getPlayerProfile().getId();
+
+        if (event.getStatus() == WhitelistStateUpdateEvent.WhitelistStatus.ADDED) {
+            if (name != null) whitelistedNames.add(normalize(name));
+            if (uuid != null) whitelistedIds.add(uuid);
+        } else {
+            if (name != null) whitelistedNames.remove(normalize(name));
+            if (uuid != null) whitelistedIds.remove(uuid);
+        }
+    }
+
+    /**
+     * Console and command block input only, commands dispatched by plugins do not fire this event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onServerCommand(ServerCommandEvent event) {
+        onCommand(event.getCommand());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerCommand(PlayerCommandPreprocessEvent event) {
+        onCommand(event.getMessage());
+    }
+
+    private void onCommand(String command) {
+        String label = command.startsWith("/") ? command.substring(1) : command;
+        int space = label.indexOf(' ');
+        if (space >= 0) label = label.substring(0, space);
+        int namespace = label.indexOf(':');
+        if (namespace >= 0) label = label.substring(namespace + 1);
+
+        if (ACCESS_COMMANDS.contains(normalize(label))) {
+            // the command runs after this event, pick up its result on the next tick
+            requestRefresh();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package me.lebogo.twitchwhitelist;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorted, case-insensitive index of names for prefix completion. A lookup walks the sorted keys from the
+ * first key not below the prefix and stops at the first one that does not start with it, so it costs
+ * O(log n + k) for k results instead of a scan over all names. Not thread-safe.
+ */
+final class PrefixIndex {
+    private final TreeMap<String, Slot> entries = new TreeMap<>();
+
+    /**
+     * @param value Name as it was first added, in its original case
+     * @param count Number of times the name was added
+     */
+    private static final class Slot {
+        private final String value;
+        private int count;
+
+        private Slot(String value) {
+            this.value = value;
+        }
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    void add(String name) {
+        if (name == null || name.isEmpty()) return;
+        entries.computeIfAbsent(normalize(name), key -> new Slot(name)).count++;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    void remove(String name) {
+        if (name == null || name.isEmpty()) return;
+        String key = normalize(name);
+        Slot slot = entries.get(key);
+        if (slot != null && --slot.count <= 0) entries.remove(key);
+    }
+
+    /**
+     * Adds the names starting with a prefix to a collection, in alphabetical order
+     *
+     * @param prefix Prefix, case-insensitive
+     * @param limit  Maximum number of names to add
+     * @param out    Collection the names are added to
+     * @return Number of names that were added
+     */
+    int complete(String prefix, int limit, Collection<String> out) {
+        String key = normalize(prefix);
+        int added = 0;
+        for (Map.Entry<String, Slot> entry : entries.tailMap(key, true).entrySet()) {
+            if (added >= limit || !entry.getKey().startsWith(key)) break;
+            out.add(entry.getValue().value);
+            added++;
+        }
+        return added;
+    }
+}
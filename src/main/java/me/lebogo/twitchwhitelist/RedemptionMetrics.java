@@ -0,0 +1,134 @@
+package me.lebogo.twitchwhitelist;
+
+import me.lebogo.twitchwhitelist.redemption.DenyReason;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the redemption path. All recording methods are allocation-free.
+ */
+public class RedemptionMetrics {
+    private static final DenyReason[] DENY_REASONS = DenyReason.values();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder fulfilled = new LongAdder();
+    private final LongAdder[] denied = new LongAdder[DENY_REASONS.length];
+
+    private final LatencyHistogram helixStatusUpdate = new LatencyHistogram();
+    private final LatencyHistogram mojangLookup = new LatencyHistogram();
+    private final LatencyHistogram chatSend = new LatencyHistogram();
+    private final LatencyHistogram storeSave = new LatencyHistogram();
+    private final LatencyHistogram dispatchWait = new LatencyHistogram();
+
+    public RedemptionMetrics() {
+        for (int i = 0; i < denied.length; i++) {
+            denied[i] = new LongAdder();
+        }
+    }
+
+    public void recordReceived() {
+        received.increment();
+    }
+
+    public void recordFulfilled() {
+        fulfilled.increment();
+    }
+
+    public void recordDenied(DenyReason reason) {
+        denied[reason.ordinal()].increment();
+    }
+
+    /**
+     * Latency of Helix redemption status update calls
+     */
+    public LatencyHistogram getHelixStatusUpdate() {
+        return helixStatusUpdate;
+    }
+
+    /**
+     * Latency of Mojang username lookups, including cache hits
+     */
+    public LatencyHistogram getMojangLookup() {
+        return mojangLookup;
+    }
+
+    /**
+     * Latency of handing a message to the chat connection
+     */
+    public LatencyHistogram getChatSend() {
+        return chatSend;
+    }
+
+    /**
+     * Latency of saving a whitelisting store
+     */
+    public LatencyHistogram getStoreSave() {
+        return storeSave;
+    }
+
+    /**
+     * Time whitelist commands waited for the main thread
+     */
+    public LatencyHistogram getDispatchWait() {
+        return dispatchWait;
+    }
+
+    /**
+     * Builds all metrics in Prometheus text format
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP twitchwhitelist_redemptions_received_total Redemptions received for the plugin's rewards\n");
+        out.append("# TYPE twitchwhitelist_redemptions_received_total counter\n");
+        out.append("twitchwhitelist_redemptions_received_total ").append(received.sum()).append('\n');
+        out.append("# HELP twitchwhitelist_redemptions_fulfilled_total Redemptions that whitelisted a player\n");
+        out.append("# TYPE twitchwhitelist_redemptions_fulfilled_total counter\n");
+        out.append("twitchwhitelist_redemptions_fulfilled_total ").append(fulfilled.sum()).append('\n');
+        out.append("# HELP twitchwhitelist_redemptions_denied_total Redemptions that were refunded, by reason\n");
+        out.append("# TYPE twitchwhitelist_redemptions_denied_total counter\n");
+        for (DenyReason reason : DENY_REASONS) {
+            out.append("twitchwhitelist_redemptions_denied_total{reason=\"").append(reason.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(denied[reason.ordinal()].sum()).append('\n');
+        }
+
+        helixStatusUpdate.writePrometheus(out, "twitchwhitelist_helix_status_update", "Latency of Helix redemption status updates");
+        mojangLookup.writePrometheus(out, "twitchwhitelist_mojang_lookup", "Latency of Mojang username lookups");
+        chatSend.writePrometheus(out, "twitchwhitelist_chat_send", "Latency of sending chat messages");
+        storeSave.writePrometheus(out, "twitchwhitelist_store_save", "Latency of saving whitelistings");
+        dispatchWait.writePrometheus(out, "twitchwhitelist_dispatch_wait", "Time whitelist commands waited for the main thread");
+        return out.toString();
+    }
+
+    /**
+     * Builds a short human-readable summary
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        lines.add("Redemptions: " + received.sum() + " received, " + fulfilled.sum() + " fulfilled");
+
+        StringBuilder deniedLine = new StringBuilder("Denied:");
+        for (DenyReason reason : DENY_REASONS) {
+            deniedLine.append(' ').append(reason.name().toLowerCase(Locale.ROOT)).append('=').append(denied[reason.ordinal()].sum());
+        }
+        lines.add(deniedLine.toString());
+
+        lines.add(summary("Helix status update", helixStatusUpdate));
+        lines.add(summary("Mojang lookup", mojangLookup));
+        lines.add(summary("Chat send", chatSend));
+        lines.add(summary("Store save", storeSave));
+        lines.add(summary("Dispatch wait", dispatchWait));
+        return lines;
+    }
+
+    private static String summary(String name, LatencyHistogram histogram) {
+        return String.format(Locale.ROOT, "%s: %d calls, avg %.1f ms, p50 %s, p99 %s", name, histogram.getCount(), histogram.getAverageMillis(),
+                bound(histogram.getPercentileMillis(0.5)), bound(histogram.getPercentileMillis(0.99)));
+    }
+
+    private static String bound(long millis) {
+        return millis < 0 ? "> 10000 ms" : "<= " + millis + " ms";
+    }
+}
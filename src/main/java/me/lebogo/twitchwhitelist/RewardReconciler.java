@@ -0,0 +1,140 @@
+package me.lebogo.twitchwhitelist;
+
+import com.github.twitch4j.helix.domain.CustomReward;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * Brings the channel's custom rewards in line with the configuration using the fewest Helix calls.
+ * Each edition is reconciled on its own and concurrently: a missing reward is created, a reward that differs is updated,
+ * a reward of a disabled edition is deleted and everything else is left alone, so redemption history is kept.
+ */
+public class RewardReconciler {
+    private static final String DISABLED = "Disabled";
+
+    private final TwitchWhitelist plugin;
+
+    /**
+     * @param javaRewardId    Reward ID to use for Java Edition, "Disabled" if there is none
+     * @param bedrockRewardId Reward ID to use for Bedrock Edition, "Disabled" if there is none
+     * @param actions         Human-readable list of the changes that were made
+     */
+    public record Result(String javaRewardId, String bedrockRewardId, List<String> actions) {
+    }
+
+    private record EditionResult(String rewardId, List<String> actions) {
+    }
+
+    public RewardReconciler(TwitchWhitelist plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Reconciles the rewards of both editions of one channel. Blocks until all Helix calls are done.
+     *
+     * @param config    Channel configuration with the desired state and the currently known reward IDs
+     * @param channelId Twitch user ID of the broadcaster
+     * @return The reward IDs to use from now on
+     */
+    public Result reconcile(ChannelConfig config, String channelId) {
+        List<CustomReward> rewards = plugin.getHelix().getCustomRewards(config.getAccessToken(), channelId, null, true).execute().getRewards();
+        // only one reward may be adopted per title
+        List<CustomReward> unclaimed = Collections.synchronizedList(new ArrayList<>(rewards));
+        unclaimed.removeIf(reward -> reward.getId().equals(config.getJavaRewardId()) || reward.getId().equals(config.getBedrockRewardId()));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CompletableFuture<EditionResult> java = CompletableFuture.supplyAsync(() -> reconcile(true, config, channelId, rewards, unclaimed), executor);
+            CompletableFuture<EditionResult> bedrock = CompletableFuture.supplyAsync(() -> reconcile(false, config, channelId, rewards, unclaimed), executor);
+
+            List<String> actions = new ArrayList<>(java.join().actions());
+            actions.addAll(bedrock.join().actions());
+            return new Result(java.join().rewardId(), bedrock.join().rewardId(), actions);
+        }
+    }
+
+    private EditionResult reconcile(boolean isJava, ChannelConfig config, String channelId, List<CustomReward> rewards, List<CustomReward> unclaimed) {
+        String edition = (isJava ? "Java" : "Bedrock") + " (" + config.getChannelName() + ")";
+        boolean enabled = isJava ? config.getEnableJava() : config.getEnableBedrock();
+        String configuredId = isJava ? config.getJavaRewardId() : config.getBedrockRewardId();
+        CustomReward desired = buildCustomReward(isJava, config);
+        List<String> actions = new ArrayList<>();
+
+        CustomReward existing = rewards.stream().filter(reward -> reward.getId().equals(configuredId)).findFirst().orElse(null);
+        if (existing == null) {
+            // the configured ID may have been lost, adopt a reward this plugin created earlier
+            synchronized (unclaimed) {
+                existing = unclaimed.stream().filter(reward -> desired.getTitle().equals(reward.getTitle())).findFirst().orElse(null);
+                if (existing != null) unclaimed.remove(existing);
+            }
+        }
+
+        if (!enabled) {
+            if (existing != null) {
+                plugin.getHelix().deleteCustomReward(config.getAccessToken(), channelId, existing.getId()).execute();
+                actions.add("Deleted " + edition + " reward.");
+            }
+            return new EditionResult(DISABLED, actions);
+        }
+
+        if (existing == null) {
+            CustomReward created = plugin.getHelix().createCustomReward(config.getAccessToken(), channelId, desired).execute().getRewards().getFirst();
+            actions.add("Created " + edition + " reward.");
+            return new EditionResult(created.getId(), actions);
+        }
+
+        if (differs(existing, desired)) {
+            plugin.getHelix().updateCustomReward(config.getAccessToken(), channelId, existing.getId(), desired).execute();
+            actions.add("Updated " + edition + " reward.");
+        }
+
+        return new EditionResult(existing.getId(), actions);
+    }
+
+    /**
+     * Builds the reward as it should look on Twitch for the given configuration
+     */
+    private static CustomReward buildCustomReward(boolean isJava, ChannelConfig config) {
+        String edition = isJava ? "Java" : "Bedrock";
+        return CustomReward.builder().title("Minecraft " + edition + " Edition").cost(config.getRewardCost()).prompt("Please enter your Minecraft " + edition + " Edition username.").isUserInputRequired(true).build();
+    }
+
+    private static boolean differs(CustomReward actual, CustomReward desired) {
+        Number actualCost = actual.getCost();
+        Number desiredCost = desired.getCost();
+        return !Objects.equals(actual.getTitle(), desired.getTitle())
+                || !Objects.equals(actual.getPrompt(), desired.getPrompt())
+                || actualCost == null || actualCost.longValue() != desiredCost.longValue();
+    }
+
+    /**
+     * Writes the reconciled reward IDs to config.yml if they changed
+     *
+     * @param fileConfig Loaded config.yml to update and save, the plugin's shared one only on the main thread
+     * @return true if the configuration was updated
+     */
+    public boolean saveRewardIds(FileConfiguration fileConfig, ChannelConfig config, Result result) {
+        if (Objects.equals(config.getJavaRewardId(), result.javaRewardId()) && Objects.equals(config.getBedrockRewardId(), result.bedrockRewardId())) {
+            return false;
+        }
+
+        fileConfig.set(config.getPath() + "javaRewardId", result.javaRewardId());
+        fileConfig.set(config.getPath() + "bedrockRewardId", result.bedrockRewardId());
+        try {
+            fileConfig.save(new File(plugin.getDataFolder(), "config.yml"));
+            plugin.getLogger().log(Level.INFO, "Saved new reward IDs for " + config.getChannelName() + ".");
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to save new reward IDs for " + config.getChannelName(), e);
+        }
+        return true;
+    }
+}
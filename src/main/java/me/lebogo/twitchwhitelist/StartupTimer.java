@@ -0,0 +1,49 @@
+package me.lebogo.twitchwhitelist;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each phase of plugin startup took
+ */
+public class StartupTimer {
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final long start = System.nanoTime();
+    private long last = start;
+
+    /**
+     * Ends the current phase
+     *
+     * @param phase Name of the phase that just finished
+     */
+    public void mark(String phase) {
+        long now = System.nanoTime();
+        phases.put(phase, TimeUnit.NANOSECONDS.toMillis(now - last));
+        last = now;
+    }
+
+    /**
+     * Gets the duration of every phase in milliseconds, in the order they finished
+     */
+    public Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(phases);
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(last - start);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Started in ").append(getTotalMillis()).append(" ms (");
+        boolean first = true;
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (!first) builder.append(", ");
+            builder.append(phase.getKey()).append(": ").append(phase.getValue()).append(" ms");
+            first = false;
+        }
+        return builder.append(')').toString();
+    }
+}
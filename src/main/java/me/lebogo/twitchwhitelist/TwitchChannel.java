@@ -0,0 +1,63 @@
+package me.lebogo.twitchwhitelist;
+
+import me.lebogo.twitchwhitelist.redemption.RedemptionPipeline;
+
+/**
+ * Runtime state of one configured Twitch channel. Every channel has its own whitelisting store and redemption pipeline,
+ * so a busy channel does not hold up the others. The channel's settings are read from the current configuration snapshot.
+ */
+public class TwitchChannel {
+    private final TwitchWhitelist plugin;
+    private final String key;
+    private final String channelId;
+    private final WhitelistingStore whitelistingStore;
+    private RedemptionPipeline redemptionPipeline;
+
+    public TwitchChannel(TwitchWhitelist plugin, String key, String channelId, WhitelistingStore whitelistingStore) {
+        this.plugin = plugin;
+        this.key = key;
+        this.channelId = channelId;
+        this.whitelistingStore = whitelistingStore;
+    }
+
+    public void start() {
+        TwitchWhitelistConfig config = plugin.getTwitchWhitelistConfig();
+        redemptionPipeline = new RedemptionPipeline(plugin, this, config.getRedemptionConcurrency(), config.getRedemptionQueueSize());
+        redemptionPipeline.start();
+        redemptionPipeline.resume(plugin.getRedemptionLedger().getUnfinished(key));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Gets the Twitch user ID of the broadcaster
+     */
+    public String getChannelId() {
+        return channelId;
+    }
+
+    /**
+     * Gets the channel's settings from the current configuration snapshot
+     */
+    public ChannelConfig getConfig() {
+        return plugin.getTwitchWhitelistConfig().getChannel(key);
+    }
+
+    public WhitelistingStore getWhitelistingStore() {
+        return whitelistingStore;
+    }
+
+    public RedemptionPipeline getRedemptionPipeline() {
+        return redemptionPipeline;
+    }
+
+    /**
+     * Stops the redemption pipeline and closes the store. Must be called on the main thread.
+     */
+    public void shutdown() {
+        if (redemptionPipeline != null) redemptionPipeline.shutdown();
+        whitelistingStore.close();
+    }
+}
@@ -4,28 +4,40 @@ import com.github.philippheuer.credentialmanager.domain.OAuth2Credential;
 import com.github.twitch4j.TwitchClient;
 import com.github.twitch4j.TwitchClientBuilder;
 import com.github.twitch4j.chat.TwitchChat;
-import com.github.twitch4j.eventsub.domain.RedemptionStatus;
 import com.github.twitch4j.helix.TwitchHelix;
-import com.github.twitch4j.helix.domain.CustomReward;
-import com.github.twitch4j.helix.domain.CustomRewardList;
-import com.github.twitch4j.helix.domain.UserList;
-import com.github.twitch4j.pubsub.TwitchPubSub;
-import com.github.twitch4j.pubsub.events.ChannelPointsRedemptionEvent;
+import com.github.twitch4j.helix.TwitchHelixBuilder;
+import com.github.twitch4j.helix.domain.User;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import io.papermc.paper.command.brigadier.Commands;
 import io.papermc.paper.plugin.lifecycle.event.LifecycleEventManager;
 import io.papermc.paper.plugin.lifecycle.event.types.LifecycleEvents;
 import me.lebogo.twitchwhitelist.commands.RedemptionCommand;
+import me.lebogo.twitchwhitelist.commands.TwitchWhitelistCommand;
+import me.lebogo.twitchwhitelist.redemption.EventSubEventSource;
+import me.lebogo.twitchwhitelist.redemption.PubSubEventSource;
+import me.lebogo.twitchwhitelist.redemption.RedemptionEventSource;
+import me.lebogo.twitchwhitelist.redemption.RedemptionLedger;
+import me.lebogo.twitchwhitelist.redemption.RedemptionRouter;
+import me.lebogo.twitchwhitelist.redemption.RedemptionSweeper;
+import me.lebogo.twitchwhitelist.redemption.UnfulfilledRedemptionPoller;
 import org.bukkit.configuration.serialization.ConfigurationSerialization;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.jetbrains.annotations.NotNull;
+import org.bukkit.scheduler.BukkitTask;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Date;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,261 +47,369 @@ public final class TwitchWhitelist extends JavaPlugin {
     }
 
     private final Logger logger = getLogger();
-    private TwitchWhitelistConfig config;
-    private WhitelistingStore whitelistingStore;
+    private volatile TwitchWhitelistConfig config;
     private OAuth2Credential credential;
     private TwitchClient twitchClient;
-    private TwitchPubSub pubSub;
     private TwitchHelix helix;
     private TwitchChat chat;
-    private String channelId;
+    /**
+     * Channels by the Twitch user ID of the broadcaster, in configuration order
+     */
+    private final Map<String, TwitchChannel> channels = new LinkedHashMap<>();
+    private volatile MojangProfileResolver mojangProfileResolver;
+    private PlayerAccessIndex playerAccessIndex;
+    private BukkitTask playerIndexRefreshTask;
+    private ChatResponseSender chatResponseSender;
+    private CommandDispatcher commandDispatcher;
+    private RedemptionEventSource redemptionEventSource;
+    private RedemptionSweeper redemptionSweeper;
+    private RedemptionLedger redemptionLedger;
+    private final RedemptionMetrics metrics = new RedemptionMetrics();
+    private MetricsServer metricsServer;
+    private RewardReconciler rewardReconciler;
+    private HikariDataSource dataSource;
+    private WhitelistingExpiry whitelistingExpiry;
+    private StartupTimer startupTimer;
 
     @Override
     public void onEnable() {
+        StartupTimer startupTimer = new StartupTimer();
         saveDefaultConfig();
         config = new TwitchWhitelistConfig(getConfig());
+        startupTimer.mark("config");
 
-        String pluginDirectory = getDataFolder().getAbsolutePath();
-        Path whitelistingPath = Path.of(pluginDirectory + "/whitelistings.yml");
-        whitelistingStore = new WhitelistingStore(whitelistingPath);
+        playerAccessIndex = new PlayerAccessIndex(this);
+        playerAccessIndex.refresh();
+        getServer().getPluginManager().registerEvents(playerAccessIndex, this);
+        schedulePlayerIndexRefresh(config);
 
+        replaceMojangProfileResolver(config);
+        startupTimer.mark("indexes");
 
-        if ("<oauth:xxxxxxxxxxxxxxxx>".equals(config.getAccessToken())) {
-            getLogger().log(Level.SEVERE, "Please set your access token in the plugins config.yml file and restart the server.");
-            getServer().getPluginManager().disablePlugin(this);
-            return;
+        for (ChannelConfig channelConfig : config.getChannels()) {
+            if ("<oauth:xxxxxxxxxxxxxxxx>".equals(config.getAccessToken()) || "<oauth:xxxxxxxxxxxxxxxx>".equals(channelConfig.getAccessToken())) {
+                getLogger().log(Level.SEVERE, "Please set your access token in the plugins config.yml file and restart the server.");
+                getServer().getPluginManager().disablePlugin(this);
+                return;
+            }
         }
 
         credential = new OAuth2Credential("twitch", config.getAccessToken());
 
-        twitchClient = TwitchClientBuilder.builder().withDefaultAuthToken(credential).withEnablePubSub(true).withChatAccount(credential).withEnableChat(true).withEnableHelix(true).build();
-        twitchClient.getPubSub().connect();
+        boolean pubSubTransport = "pubsub".equalsIgnoreCase(config.getEventTransport());
+        twitchClient = TwitchClientBuilder.builder().withDefaultAuthToken(credential).withEnablePubSub(pubSubTransport).withChatAccount(credential).withEnableChat(true).withEnableHelix(true).build();
 
         helix = twitchClient.getHelix();
+        if (!TwitchHelixBuilder.OFFICIAL_API_URL.equals(config.getHelixUrl())) {
+            // a separate client for a local Helix stand-in, chat and PubSub still use Twitch
+            helix = TwitchHelixBuilder.builder().withBaseUrl(config.getHelixUrl()).withDefaultAuthToken(credential).build();
+        }
         chat = twitchClient.getChat();
-        pubSub = twitchClient.getPubSub();
-
-        String authToken = config.getAccessToken();
-        channelId = getChannelId(helix, authToken, config.getChannelName());
-
-        chat.joinChannel(config.getChannelName());
-
-        cleanupCustomRewards();
-
-        registerPubSubListeners();
-
-        LifecycleEventManager<Plugin> manager = this.getLifecycleManager();
-        manager.registerEventHandler(LifecycleEvents.COMMANDS, event -> {
-            final Commands commands = event.registrar();
-            commands.register("redemption", new RedemptionCommand(whitelistingStore));
-        });
-    }
-
-    private String getChannelId(TwitchHelix helix, String authToken, String channelName) {
-        UserList userList = helix.getUsers(authToken, null, List.of(channelName)).execute();
-        return userList.getUsers().getFirst().getId();
-    }
-
-
-    private void cleanupCustomRewards() {
-        CustomRewardList customRewards = helix.getCustomRewards(config.getAccessToken(), channelId, null, true).execute();
+        startupTimer.mark("twitch client");
+
+        if ("database".equalsIgnoreCase(config.getPersistenceMode())) {
+            try {
+                dataSource = createDataSource(config);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Failed to connect to the whitelisting database, disabling the plugin.", e);
+                getServer().getPluginManager().disablePlugin(this);
+                return;
+            }
+        }
 
-        List<CustomReward> rewards = customRewards.getRewards();
+        List<ChannelConfig> channelConfigs = new ArrayList<>();
+        for (ChannelConfig channelConfig : config.getChannels()) {
+            if (channelConfig.getChannelName().isEmpty()) {
+                logger.log(Level.SEVERE, "Channel \"" + channelConfig.getKey() + "\" has no channelName in config.yml, skipping it.");
+                continue;
+            }
+            channelConfigs.add(channelConfig);
+        }
 
-        boolean javaPresent = false;
-        boolean bedrockPresent = false;
+        Map<String, String> channelIds = getChannelIds(helix, config.getAccessToken(), channelConfigs);
+        for (ChannelConfig channelConfig : channelConfigs) {
+            String channelId = channelIds.get(channelConfig.getChannelName().toLowerCase());
+            if (channelId == null) {
+                logger.log(Level.SEVERE, "Twitch channel \"" + channelConfig.getChannelName() + "\" does not exist, skipping it.");
+                continue;
+            }
 
-        for (CustomReward reward : rewards) {
-            if (reward.getId().equals(config.getJavaRewardId())) {
-                javaPresent = true;
-            } else if (reward.getId().equals(config.getBedrockRewardId())) {
-                bedrockPresent = true;
+            WhitelistingStore whitelistingStore = createWhitelistingStore(channelConfig);
+            if (whitelistingStore == null) {
+                getServer().getPluginManager().disablePlugin(this);
+                return;
             }
+            channels.put(channelId, new TwitchChannel(this, channelConfig.getKey(), channelId, whitelistingStore));
         }
+        startupTimer.mark("channel lookup");
 
-        boolean regenerate = false;
-        if (javaPresent && !config.getEnableJava()) {
-            logger.log(Level.INFO, "Java reward is present but disabled.");
-            regenerate = true;
+        for (TwitchChannel channel : channels.values()) {
+            chat.joinChannel(channel.getConfig().getChannelName());
         }
+        chatResponseSender = new ChatResponseSender(() -> chat, logger, config.getChatMessagesPerWindow(), TimeUnit.SECONDS.toMillis(30), config.getChatQueueSize(), metrics.getChatSend());
+        chatResponseSender.start();
 
-        if (bedrockPresent && !config.getEnableBedrock()) {
-            logger.log(Level.INFO, "Bedrock reward is present but disabled.");
-            regenerate = true;
-        }
+        rewardReconciler = new RewardReconciler(this);
+        reconcileCustomRewards();
+        startupTimer.mark("rewards");
 
-        if (!javaPresent && config.getEnableJava()) {
-            logger.log(Level.INFO, "Java reward is missing.");
-            regenerate = true;
+        commandDispatcher = new CommandDispatcher(this, config.getCommandsPerTick(), config.getCommandTickBudget(), metrics.getDispatchWait());
+        commandDispatcher.start();
+        redemptionLedger = new RedemptionLedger(getDataFolder().toPath().resolve("redemptions.ledger"), logger);
+        try {
+            redemptionLedger.open();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to open the redemption ledger, redemptions are not processed.", e);
+            getServer().getPluginManager().disablePlugin(this);
+            return;
         }
 
-        if (!bedrockPresent && config.getEnableBedrock()) {
-            logger.log(Level.INFO, "Bedrock reward is missing.");
-            regenerate = true;
+        // queue the stored whitelistings before the pipelines add new ones
+        if (config.getExpireAfterDays() > 0 || config.getExpireAfterInactiveDays() > 0) {
+            whitelistingExpiry = new WhitelistingExpiry(this, config.getExpireAfterDays(), config.getExpireAfterInactiveDays(), config.getAllowRedeemAfterExpiry(),
+                    config.getExpiryBatchSize(), getDataFolder().toPath().resolve("expired-whitelistings.tsv"));
+            whitelistingExpiry.start(config.getExpiryCheckInterval());
         }
 
-        if (regenerate) {
-            logger.log(Level.INFO, "(Re)generating custom rewards...");
-            for (CustomReward reward : rewards) {
-                logger.log(Level.INFO, "Deleting old reward: " + reward.getTitle());
-                helix.deleteCustomReward(config.getAccessToken(), channelId, reward.getId()).execute();
-            }
-
-            createCustomRewards();
-        } else {
-            logger.log(Level.INFO, "Custom rewards already exist, reusing them.");
+        for (TwitchChannel channel : channels.values()) {
+            channel.start();
         }
-    }
 
-    private void createCustomRewards() {
-        logger.log(Level.INFO, "Creating new reward for Java Edition...");
+        registerRedemptionListeners(pubSubTransport);
+        startMetricsServer();
+        startupTimer.mark("listeners");
 
+        LifecycleEventManager<Plugin> manager = this.getLifecycleManager();
+        manager.registerEventHandler(LifecycleEvents.COMMANDS, event -> {
+            final Commands commands = event.registrar();
+            commands.register("redemption", new RedemptionCommand(this, getChannels(), () -> config.getMaxSuggestions()));
+            commands.register("twitchwhitelist", new TwitchWhitelistCommand(this, new ConfigReloader(this, rewardReconciler)));
+        });
 
-        config.setJavaRewardId("Disabled");
-        config.setBedrockRewardId("Disabled");
+        this.startupTimer = startupTimer;
+        logger.log(Level.INFO, startupTimer.toString());
+    }
 
-        if (config.getEnableJava()) {
-            CustomReward javaReward = helix.createCustomReward(config.getAccessToken(), channelId, CustomReward.builder().title("Minecraft Java Edition").cost(config.getRewardCost()).prompt("Please enter your Minecraft Java Edition username.").isUserInputRequired(true).build()).execute().getRewards().getFirst();
-            config.setJavaRewardId(javaReward.getId());
+    private void startMetricsServer() {
+        if (config.getMetricsPort() <= 0) return;
 
-            logger.log(Level.INFO, "Created reward: " + javaReward.getTitle());
+        try {
+            metricsServer = new MetricsServer(metrics, config.getMetricsBindAddress(), config.getMetricsPort());
+            metricsServer.start();
+            logger.log(Level.INFO, "Serving metrics on " + config.getMetricsBindAddress() + ":" + config.getMetricsPort() + "/metrics");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to start the metrics endpoint: " + e.getMessage());
         }
+    }
 
-        if (config.getEnableBedrock()) {
-            logger.log(Level.INFO, "Creating new reward for Bedrock Edition...");
-            CustomReward bedrockReward = helix.createCustomReward(config.getAccessToken(), channelId, CustomReward.builder().title("Minecraft Bedrock Edition").cost(config.getRewardCost()).prompt("Please enter your Minecraft Bedrock Edition username.").isUserInputRequired(true).build()).execute().getRewards().getFirst();
-            config.setBedrockRewardId(bedrockReward.getId());
+    /**
+     * (Re)schedules the periodic rebuild of the player access index
+     */
+    public void schedulePlayerIndexRefresh(TwitchWhitelistConfig config) {
+        if (playerIndexRefreshTask != null) playerIndexRefreshTask.cancel();
+        long refreshTicks = Math.max(1, config.getPlayerIndexRefreshInterval()) * 20;
+        playerIndexRefreshTask = getServer().getScheduler().runTaskTimer(this, playerAccessIndex::refresh, refreshTicks, refreshTicks);
+    }
 
-            logger.log(Level.INFO, "Created reward: " + bedrockReward.getTitle());
+    /**
+     * Creates a Mojang profile resolver for the given configuration, taking over the cache of the previous one
+     */
+    public void replaceMojangProfileResolver(TwitchWhitelistConfig config) {
+        Path cachePath = getDataFolder().toPath().resolve("mojang-cache.tsv");
+        if (mojangProfileResolver != null) mojangProfileResolver.save();
+        mojangProfileResolver = new MojangProfileResolver(config.getMojangApiUrl(), Duration.ofMillis(config.getMojangTimeout()), config.getMojangCacheSize(), TimeUnit.SECONDS.toMillis(config.getMojangCacheTtl()), TimeUnit.SECONDS.toMillis(config.getMojangNegativeCacheTtl()), cachePath, logger);
+    }
+
+    /**
+     * Looks up the user IDs of all channels with a single Helix call
+     *
+     * @return User IDs by lowercase channel name
+     */
+    private Map<String, String> getChannelIds(TwitchHelix helix, String authToken, List<ChannelConfig> channelConfigs) {
+        List<String> channelNames = new ArrayList<>();
+        for (ChannelConfig channelConfig : channelConfigs) {
+            channelNames.add(channelConfig.getChannelName());
         }
 
-        saveConfig();
+        Map<String, String> channelIds = new HashMap<>();
+        for (User user : helix.getUsers(authToken, null, channelNames).execute().getUsers()) {
+            channelIds.put(user.getLogin().toLowerCase(), user.getId());
+        }
+        return channelIds;
     }
 
+    /**
+     * Creates the store of a channel for the configured persistence mode
+     *
+     * @return The store or null if the database could not be used
+     */
+    private WhitelistingStore createWhitelistingStore(ChannelConfig channelConfig) {
+        String fileName = channelConfig.isDefault() ? "whitelistings.yml" : "whitelistings-" + channelConfig.getKey() + ".yml";
+        Path whitelistingPath = getDataFolder().toPath().resolve(fileName);
+        if (dataSource != null) {
+            try {
+                return new JdbcWhitelistingStore(dataSource, channelConfig.getKey(), whitelistingPath, logger);
+            } catch (SQLException e) {
+                logger.log(Level.SEVERE, "Failed to load the whitelistings of " + channelConfig.getChannelName() + " from the database, disabling the plugin.", e);
+                return null;
+            }
+        }
 
-    private void registerPubSubListeners() {
-        logger.log(Level.INFO, "Registering PubSub listeners.");
-        pubSub.listenForChannelPointsRedemptionEvents(credential, channelId);
+        boolean journaling = "journal".equalsIgnoreCase(config.getPersistenceMode());
+        boolean binarySnapshot = "binary".equalsIgnoreCase(config.getSnapshotFormat());
+        return new YamlWhitelistingStore(whitelistingPath, journaling, config.getJournalCompactionThreshold(), binarySnapshot, logger);
+    }
 
-        pubSub.getEventManager().onEvent(ChannelPointsRedemptionEvent.class, event -> {
-            if (!Objects.equals(event.getRedemption().getStatus(), "UNFULFILLED")) {
-                return;
-            }
+    private HikariDataSource createDataSource(TwitchWhitelistConfig config) {
+        String url = config.getDatabaseUrl();
+        if (url.isEmpty()) {
+            // AUTO_SERVER lets servers on the same machine open the file at the same time
+            url = "jdbc:h2:file:" + getDataFolder().toPath().toAbsolutePath().resolve("whitelistings") + ";AUTO_SERVER=TRUE";
+        }
 
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("TwitchWhitelist");
+        hikariConfig.setJdbcUrl(url);
+        // the plugin class loader is not visible to DriverManager, load the bundled driver explicitly
+        if (url.startsWith("jdbc:h2:")) hikariConfig.setDriverClassName("org.h2.Driver");
+        if (!config.getDatabaseUsername().isEmpty()) hikariConfig.setUsername(config.getDatabaseUsername());
+        if (!config.getDatabasePassword().isEmpty()) hikariConfig.setPassword(config.getDatabasePassword());
+        hikariConfig.setMaximumPoolSize(Math.max(2, config.getDatabasePoolSize()));
+        return new HikariDataSource(hikariConfig);
+    }
 
-            String rewardId = event.getRedemption().getReward().getId();
-            String username = event.getRedemption().getUserInput();
-            String twitchUsername = event.getRedemption().getUser().getLogin();
-            boolean isJava = rewardId.equals(config.getJavaRewardId());
-            boolean isBedrock = rewardId.equals(config.getBedrockRewardId());
 
-            if (!isJava && !isBedrock) {
-                // this redemption is not for us. Ignore it.
-                return;
+    private void reconcileCustomRewards() {
+        boolean changed = false;
+        for (TwitchChannel channel : channels.values()) {
+            ChannelConfig channelConfig = channel.getConfig();
+            RewardReconciler.Result result = rewardReconciler.reconcile(channelConfig, channel.getChannelId());
+            for (String action : result.actions()) {
+                logger.log(Level.INFO, action);
             }
 
-            logger.log(Level.INFO, "Redemption event: " + event.getRedemption().getReward().getTitle());
-
+            changed |= rewardReconciler.saveRewardIds(getConfig(), channelConfig, result);
 
-            for (TwitchWhitelisting whitelisting : whitelistingStore.getWhitelistings()) {
-                // Check if the user already has a whitelist entry
-                if (whitelisting.twitchUsername().equals(twitchUsername)) {
-                    denyRedemption(event);
-                    twitchClient.getChat().sendMessage(config.getChannelName(), "@" + event.getRedemption().getUser().getDisplayName() + " You have already redeemed a whitelisting.");
-                    return;
-                }
+            if (result.actions().isEmpty()) {
+                logger.log(Level.INFO, "Custom rewards of " + channelConfig.getChannelName() + " already exist, reusing them.");
             }
+        }
 
-            if (username == null) {
-                denyRedemption(event);
-                twitchClient.getChat().sendMessage(config.getChannelName(), "@" + event.getRedemption().getUser().getDisplayName() + " Please enter a username.");
-                return;
-            }
+        if (changed) {
+            config = new TwitchWhitelistConfig(getConfig());
+        }
+    }
 
-            if (isPlayerWhitelisted(username)) {
-                denyRedemption(event);
-                twitchClient.getChat().sendMessage(config.getChannelName(), "@" + event.getRedemption().getUser().getDisplayName() + " You are already whitelisted.");
-                return;
-            }
 
-            if (isPlayerBanned(username)) {
-                denyRedemption(event);
-                twitchClient.getChat().sendMessage(config.getChannelName(), "@" + event.getRedemption().getUser().getDisplayName() + " You are banned from the server.");
-                return;
-            }
+    private void registerRedemptionListeners(boolean pubSubTransport) {
+        RedemptionRouter router = new RedemptionRouter(channels);
+        if (pubSubTransport) {
+            logger.log(Level.INFO, "Registering PubSub listeners.");
+            twitchClient.getPubSub().connect();
+            redemptionEventSource = new PubSubEventSource(twitchClient.getPubSub(), router);
+        } else {
+            logger.log(Level.INFO, "Registering EventSub listeners.");
+            redemptionEventSource = new EventSubEventSource(config.getEventSubUrl(), helix, router, logger);
+        }
 
-            if (isJava && config.getCheckJavaUsernames() && !doesJavaPlayerExist(username)) {
-                denyRedemption(event);
-                twitchClient.getChat().sendMessage(config.getChannelName(), "@" + event.getRedemption().getUser().getDisplayName() + " The username \"" + event.getRedemption().getUserInput() + "\" does not exist.");
-                return;
-            }
+        for (TwitchChannel channel : channels.values()) {
+            redemptionEventSource.subscribe(channel);
+        }
 
-            fulfillRedemption(event);
+        // sweep after subscribing, redemptions that show up in both are only processed once
+        UnfulfilledRedemptionPoller poller = new UnfulfilledRedemptionPoller(helix, router, logger);
+        redemptionSweeper = new RedemptionSweeper(poller, router, getDataFolder().toPath().resolve("sweep-cursors.tsv"), logger);
+        redemptionSweeper.start(config.getRedemptionSweepInterval());
+    }
 
-            String finalWhitelistCommand = getWhitelistCommand(username, isJava, isBedrock);
-            getServer().getScheduler().runTask(this, () -> getServer().dispatchCommand(getServer().getConsoleSender(), finalWhitelistCommand));
+    /**
+     * Gets the current configuration snapshot. The snapshot is immutable, read it once per operation
+     * to work with consistent values.
+     */
+    public TwitchWhitelistConfig getTwitchWhitelistConfig() {
+        return config;
+    }
 
-            String twitchMessage = isJava ? config.getJavaWhitelistSuccessfullMessage() : config.getBedrockWhitelistSuccessfullMessage();
-            twitchMessage = twitchMessage.replace("{username}", username);
+    /**
+     * Swaps in a new configuration snapshot
+     */
+    public void setTwitchWhitelistConfig(TwitchWhitelistConfig config) {
+        this.config = config;
+    }
 
-            whitelistingStore.addWhitelisting(new TwitchWhitelisting(twitchUsername, username, new Date(), isJava));
-            whitelistingStore.save();
+    public MojangProfileResolver getMojangProfileResolver() {
+        return mojangProfileResolver;
+    }
 
-            twitchClient.getChat().sendMessage(config.getChannelName(), "@" + event.getRedemption().getUser().getDisplayName() + " " + twitchMessage);
-        });
+    public PlayerAccessIndex getPlayerAccessIndex() {
+        return playerAccessIndex;
     }
 
-    @NotNull
-    private String getWhitelistCommand(String username, boolean isJava, boolean isBedrock) {
-        String whitelistCommand = "say An error occurred while processing the whitelist command. Please contact the Plugin Developer.";
-        if (isJava) {
-            whitelistCommand = config.getJavaWhitelistCommand().replace("{username}", username);
-        } else if (isBedrock) {
-            whitelistCommand = config.getBedrockWhitelistCommand().replace("{username}", username);
-        }
+    /**
+     * Gets all channels that were found on Twitch, in configuration order
+     */
+    public Collection<TwitchChannel> getChannels() {
+        return Collections.unmodifiableCollection(channels.values());
+    }
 
-        // remove the leading slash if it exists
-        if (whitelistCommand.startsWith("/")) {
-            whitelistCommand = whitelistCommand.substring(1);
-        }
+    public CommandDispatcher getCommandDispatcher() {
+        return commandDispatcher;
+    }
 
-        return whitelistCommand;
+    public RedemptionMetrics getMetrics() {
+        return metrics;
     }
 
-    private void denyRedemption(ChannelPointsRedemptionEvent event) {
-        helix.updateRedemptionStatus(config.getAccessToken(), channelId, event.getRedemption().getReward().getId(), List.of(event.getRedemption().getId()), RedemptionStatus.CANCELED).execute();
+    public RedemptionLedger getRedemptionLedger() {
+        return redemptionLedger;
     }
 
-    private void fulfillRedemption(ChannelPointsRedemptionEvent event) {
-        helix.updateRedemptionStatus(config.getAccessToken(), channelId, event.getRedemption().getReward().getId(), List.of(event.getRedemption().getId()), RedemptionStatus.FULFILLED).execute();
+    /**
+     * Gets the expiry engine, null if whitelistings do not expire
+     */
+    public WhitelistingExpiry getWhitelistingExpiry() {
+        return whitelistingExpiry;
     }
 
-    private boolean isPlayerWhitelisted(String username) {
-        return getServer().getWhitelistedPlayers().stream().anyMatch(player -> Objects.equals(player.getName(), username));
+    public TwitchHelix getHelix() {
+        return helix;
     }
 
-    private boolean isPlayerBanned(String username) {
-        return getServer().getBannedPlayers().stream().anyMatch(player -> Objects.equals(player.getName(), username));
+    public TwitchChat getChat() {
+        return chat;
     }
 
-    public boolean doesJavaPlayerExist(String username) {
-        try {
-            URL url = new URL("https://api.mojang.com/users/profiles/minecraft/" + username);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-
-            int responseCode = connection.getResponseCode();
-            return responseCode == 200;
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return false;
+    public ChatResponseSender getChatResponseSender() {
+        return chatResponseSender;
+    }
+
+    public StartupTimer getStartupTimer() {
+        return startupTimer;
     }
 
     @Override
     public void onDisable() {
-        if (pubSub != null) pubSub.disconnect();
-        if (chat != null) chat.leaveChannel(config.getChannelName());
+        if (metricsServer != null) metricsServer.stop();
+        if (redemptionEventSource != null) redemptionEventSource.close();
+        if (redemptionSweeper != null) redemptionSweeper.shutdown();
+        if (whitelistingExpiry != null) whitelistingExpiry.shutdown();
+        // workers may wait for whitelist commands, stop them before draining the dispatcher on this thread
+        for (TwitchChannel channel : channels.values()) {
+            if (channel.getRedemptionPipeline() != null) channel.getRedemptionPipeline().stop();
+        }
+        if (commandDispatcher != null) commandDispatcher.shutdown();
+        for (TwitchChannel channel : channels.values()) {
+            channel.shutdown();
+        }
+        if (dataSource != null) dataSource.close();
+        if (redemptionLedger != null) redemptionLedger.close();
+        if (chatResponseSender != null) chatResponseSender.shutdown();
+        if (chat != null) {
+            for (TwitchChannel channel : channels.values()) {
+                chat.leaveChannel(channel.getConfig().getChannelName());
+            }
+        }
         if (twitchClient != null) twitchClient.close();
+        if (mojangProfileResolver != null) mojangProfileResolver.save();
     }
 }
@@ -1,80 +1,320 @@
 package me.lebogo.twitchwhitelist;
 
+import com.github.twitch4j.helix.TwitchHelixBuilder;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 
-public class TwitchWhitelistConfig {
-    private final FileConfiguration config;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the plugin configuration. All values are read and all templates are compiled once
+ * when the snapshot is created, to change the configuration a new snapshot is created and swapped in.
+ */
+public final class TwitchWhitelistConfig {
+    // Twitch
+    private final String accessToken;
+    private final Map<String, ChannelConfig> channels;
+    private final int chatMessagesPerWindow;
+    private final int chatQueueSize;
+    private final String eventTransport;
+    private final String eventSubUrl;
+    private final String helixUrl;
+
+    // Java
+    private final String mojangApiUrl;
+    private final long mojangTimeout;
+    private final int mojangCacheSize;
+    private final long mojangCacheTtl;
+    private final long mojangNegativeCacheTtl;
+
+    // Redemptions
+    private final int redemptionConcurrency;
+    private final int redemptionQueueSize;
+    private final long redemptionStatusBatchWindow;
+    private final int redemptionStatusBatchSize;
+    private final int commandsPerTick;
+    private final long commandTickBudget;
+    private final long playerIndexRefreshInterval;
+    private final long redemptionSweepInterval;
+    private final int maxSuggestions;
+
+    // Expiry
+    private final long expireAfterDays;
+    private final long expireAfterInactiveDays;
+    private final boolean allowRedeemAfterExpiry;
+    private final long expiryCheckInterval;
+    private final int expiryBatchSize;
+
+    // Metrics
+    private final int metricsPort;
+    private final String metricsBindAddress;
+
+    // Storage
+    private final String persistenceMode;
+    private final String snapshotFormat;
+    private final long journalCompactionThreshold;
+    private final String databaseUrl;
+    private final String databaseUsername;
+    private final String databasePassword;
+    private final int databasePoolSize;
 
     public TwitchWhitelistConfig(FileConfiguration config) {
-        this.config = config;
+        this.accessToken = stripTokenPrefix(config.getString("accessToken", ""));
+
+        Map<String, ChannelConfig> channels = new LinkedHashMap<>();
+        channels.put(ChannelConfig.DEFAULT_KEY, new ChannelConfig(ChannelConfig.DEFAULT_KEY, config, config));
+        ConfigurationSection channelsSection = config.getConfigurationSection("channels");
+        if (channelsSection != null) {
+            for (String key : channelsSection.getKeys(false)) {
+                ConfigurationSection channelSection = channelsSection.getConfigurationSection(key);
+                if (channelSection == null || ChannelConfig.DEFAULT_KEY.equals(key)) continue;
+                channels.put(key, new ChannelConfig(key, channelSection, config));
+            }
+        }
+        this.channels = Collections.unmodifiableMap(channels);
+
+        this.chatMessagesPerWindow = config.getInt("chatMessagesPerWindow", 20);
+        this.chatQueueSize = config.getInt("chatQueueSize", 200);
+        this.eventTransport = config.getString("eventTransport", "eventsub");
+        this.eventSubUrl = config.getString("eventSubUrl", "wss://eventsub.wss.twitch.tv/ws");
+        this.helixUrl = config.getString("helixUrl", TwitchHelixBuilder.OFFICIAL_API_URL);
+
+        this.mojangApiUrl = config.getString("mojangApiUrl", "https://api.mojang.com");
+        this.mojangTimeout = config.getLong("mojangTimeout", 5000);
+        this.mojangCacheSize = config.getInt("mojangCacheSize", 10000);
+        this.mojangCacheTtl = config.getLong("mojangCacheTtl", 86400);
+        this.mojangNegativeCacheTtl = config.getLong("mojangNegativeCacheTtl", 600);
+
+        this.redemptionConcurrency = config.getInt("redemptionConcurrency", 4);
+        this.redemptionQueueSize = config.getInt("redemptionQueueSize", 1000);
+        this.redemptionStatusBatchWindow = config.getLong("redemptionStatusBatchWindow", 250);
+        this.redemptionStatusBatchSize = config.getInt("redemptionStatusBatchSize", 50);
+        this.commandsPerTick = config.getInt("commandsPerTick", 20);
+        this.commandTickBudget = config.getLong("commandTickBudget", 5);
+        this.playerIndexRefreshInterval = config.getLong("playerIndexRefreshInterval", 300);
+        this.redemptionSweepInterval = config.getLong("redemptionSweepInterval", 0);
+        this.maxSuggestions = config.getInt("maxSuggestions", 50);
+
+        this.expireAfterDays = config.getLong("expireAfterDays", 0);
+        this.expireAfterInactiveDays = config.getLong("expireAfterInactiveDays", 0);
+        this.allowRedeemAfterExpiry = config.getBoolean("allowRedeemAfterExpiry", true);
+        this.expiryCheckInterval = config.getLong("expiryCheckInterval", 60);
+        this.expiryBatchSize = config.getInt("expiryBatchSize", 50);
+
+        this.metricsPort = config.getInt("metricsPort", 0);
+        this.metricsBindAddress = config.getString("metricsBindAddress", "127.0.0.1");
+
+        this.persistenceMode = config.getString("persistenceMode", "journal");
+        this.snapshotFormat = config.getString("snapshotFormat", "yaml");
+        this.journalCompactionThreshold = config.getLong("journalCompactionThreshold", 1048576);
+        this.databaseUrl = config.getString("databaseUrl", "");
+        this.databaseUsername = config.getString("databaseUsername", "");
+        this.databasePassword = config.getString("databasePassword", "");
+        this.databasePoolSize = config.getInt("databasePoolSize", 4);
+    }
+
+    static String stripTokenPrefix(String token) {
+        if (token.startsWith("oauth2:")) token = token.substring(7);
+        if (token.startsWith("oauth:")) token = token.substring(6);
+        return token;
     }
 
     // ----------------- Twitch -----------------
 
+    /**
+     * Gets the token of the account that sends chat messages
+     */
     public String getAccessToken() {
-        String accessToken = config.getString("accessToken");
-        if (accessToken != null && accessToken.startsWith("oauth2:")) accessToken = accessToken.substring(7);
-        if (accessToken.startsWith("oauth:")) accessToken = accessToken.substring(6);
         return accessToken;
     }
 
-    public String getChannelName() {
-        return config.getString("channelName");
+    /**
+     * Gets all configured channels, the default channel first
+     */
+    public List<ChannelConfig> getChannels() {
+        return new ArrayList<>(channels.values());
     }
 
-    public int getRewardCost() {
-        return config.getInt("rewardCost");
+    /**
+     * Gets a channel by its key
+     *
+     * @param key Key of the channel, "default" for the top-level channel
+     * @return The channel or null if it is not configured
+     */
+    public ChannelConfig getChannel(String key) {
+        return channels.get(key);
+    }
+
+    public int getChatMessagesPerWindow() {
+        return chatMessagesPerWindow;
+    }
+
+    public int getChatQueueSize() {
+        return chatQueueSize;
+    }
+
+    /**
+     * Gets how redemptions are received, "eventsub" or "pubsub"
+     */
+    public String getEventTransport() {
+        return eventTransport;
+    }
+
+    public String getEventSubUrl() {
+        return eventSubUrl;
+    }
+
+    /**
+     * @return Base URL of the Helix API, differs from the official one only to point the plugin at a local stand-in
+     */
+    public String getHelixUrl() {
+        return helixUrl;
     }
 
     // ----------------- Java -----------------
 
-    public boolean getEnableJava() {
-        return config.getBoolean("enableJava");
+    public String getMojangApiUrl() {
+        return mojangApiUrl;
+    }
+
+    public long getMojangTimeout() {
+        return mojangTimeout;
+    }
+
+    public int getMojangCacheSize() {
+        return mojangCacheSize;
+    }
+
+    public long getMojangCacheTtl() {
+        return mojangCacheTtl;
+    }
+
+    public long getMojangNegativeCacheTtl() {
+        return mojangNegativeCacheTtl;
+    }
+
+    // ----------------- Redemptions -----------------
+
+    public int getRedemptionConcurrency() {
+        return redemptionConcurrency;
+    }
+
+    public int getRedemptionQueueSize() {
+        return redemptionQueueSize;
+    }
+
+    public long getRedemptionStatusBatchWindow() {
+        return redemptionStatusBatchWindow;
+    }
+
+    public int getRedemptionStatusBatchSize() {
+        return redemptionStatusBatchSize;
+    }
+
+    public int getCommandsPerTick() {
+        return commandsPerTick;
+    }
+
+    public long getCommandTickBudget() {
+        return commandTickBudget;
+    }
+
+    public long getPlayerIndexRefreshInterval() {
+        return playerIndexRefreshInterval;
+    }
+
+    /**
+     * Gets the seconds between sweeps for unfulfilled redemptions, 0 to only sweep on startup
+     */
+    public long getRedemptionSweepInterval() {
+        return redemptionSweepInterval;
+    }
+
+    /**
+     * Gets the maximum number of usernames offered by tab completion of /redemption
+     */
+    public int getMaxSuggestions() {
+        return maxSuggestions;
     }
 
-    public boolean getCheckJavaUsernames() {
-        return config.getBoolean("checkJavaUsernames");
+    // ----------------- Expiry -----------------
+
+    /**
+     * @return Days after the redemption a whitelisting expires, 0 if it does not
+     */
+    public long getExpireAfterDays() {
+        return expireAfterDays;
     }
 
-    public String getJavaRewardId() {
-        return config.getString("javaRewardId");
+    /**
+     * @return Days without playing after which a whitelisting expires, 0 if it does not
+     */
+    public long getExpireAfterInactiveDays() {
+        return expireAfterInactiveDays;
     }
 
-    public void setJavaRewardId(String javaRewardId) {
-        config.set("javaRewardId", javaRewardId);
+    public boolean getAllowRedeemAfterExpiry() {
+        return allowRedeemAfterExpiry;
     }
 
-    public String getJavaWhitelistCommand() {
-        return config.getString("javaWhitelistCommand");
+    public long getExpiryCheckInterval() {
+        return expiryCheckInterval;
     }
 
-    public String getJavaWhitelistSuccessfullMessage() {
-        return config.getString("javaWhitelistSuccessfullMessage");
+    public int getExpiryBatchSize() {
+        return expiryBatchSize;
     }
 
-    // ----------------- Bedrock -----------------
+    // ----------------- Metrics -----------------
+
+    /**
+     * Gets the port of the Prometheus endpoint, 0 if it is disabled
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public String getMetricsBindAddress() {
+        return metricsBindAddress;
+    }
+
+    // ----------------- Storage -----------------
+
+    public String getPersistenceMode() {
+        return persistenceMode;
+    }
 
-    public boolean getEnableBedrock() {
-        return config.getBoolean("enableBedrock");
+    public long getJournalCompactionThreshold() {
+        return journalCompactionThreshold;
     }
 
-    public String getBedrockRewardId() {
-        return config.getString("bedrockRewardId");
+    /**
+     * @return "binary" to keep whitelistings in a binary snapshot, "yaml" otherwise
+     */
+    public String getSnapshotFormat() {
+        return snapshotFormat;
     }
 
-    public void setBedrockRewardId(String bedrockRewardId) {
-        config.set("bedrockRewardId", bedrockRewardId);
+    /**
+     * @return JDBC URL of the database for the "database" persistence mode, empty for an H2 file in the plugin folder
+     */
+    public String getDatabaseUrl() {
+        return databaseUrl;
     }
 
-    public String getBedrockWhitelistCommand() {
-        return config.getString("bedrockWhitelistCommand");
+    public String getDatabaseUsername() {
+        return databaseUsername;
     }
 
-    public String getBedrockWhitelistSuccessfullMessage() {
-        return config.getString("bedrockWhitelistSuccessfullMessage");
+    public String getDatabasePassword() {
+        return databasePassword;
     }
 
-    public FileConfiguration getConfig() {
-        return config;
+    public int getDatabasePoolSize() {
+        return databasePoolSize;
     }
 }
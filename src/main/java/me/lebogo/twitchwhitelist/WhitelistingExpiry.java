@@ -0,0 +1,225 @@
+package me.lebogo.twitchwhitelist;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Un-whitelists players once their whitelisting expires, a fixed number of days after the redemption
+ * and/or after the player was last seen.
+ * <p>
+ * Whitelistings wait in a priority queue ordered by the earliest time they can expire, so a check only looks at the head.
+ * Inactivity can only push that time back, so a whitelisting is first queued as if the player never joined,
+ * and re-queued at its real deadline if the player was seen since.
+ * <p>
+ * Due whitelistings are handled in batches on the main thread, which runs the un-whitelist commands.
+ * The stores are updated off the main thread afterwards. Whitelistings that expired but may not be redeemed again
+ * stay in the store and are listed in expired-whitelistings.tsv, so they are not expired a second time.
+ */
+public class WhitelistingExpiry {
+    private record Scheduled(long dueAt, TwitchChannel channel, TwitchWhitelisting whitelisting) {
+    }
+
+    private final TwitchWhitelist plugin;
+    private final long afterRedemptionMillis;
+    private final long afterInactivityMillis;
+    private final boolean allowRedeemAgain;
+    private final int batchSize;
+    private final Path expiredPath;
+    private final PriorityQueue<Scheduled> queue = new PriorityQueue<>(Comparator.comparingLong(Scheduled::dueAt));
+    private final Set<String> expired = new HashSet<>();
+    private final MessageTemplate.Context context = new MessageTemplate.Context();
+    private BukkitTask task;
+
+    /**
+     * @param plugin              Plugin
+     * @param afterRedemptionDays Days after the redemption a whitelisting expires, 0 to disable
+     * @param afterInactiveDays   Days without playing after which a whitelisting expires, 0 to disable
+     * @param allowRedeemAgain    true to remove expired whitelistings from the store, so the viewer can redeem again
+     * @param batchSize           Maximum number of whitelistings expired per tick
+     * @param expiredPath         File listing expired whitelistings that are kept in the store
+     */
+    public WhitelistingExpiry(TwitchWhitelist plugin, long afterRedemptionDays, long afterInactiveDays, boolean allowRedeemAgain, int batchSize, Path expiredPath) {
+        this.plugin = plugin;
+        this.afterRedemptionMillis = TimeUnit.DAYS.toMillis(Math.max(0, afterRedemptionDays));
+        this.afterInactivityMillis = TimeUnit.DAYS.toMillis(Math.max(0, afterInactiveDays));
+        this.allowRedeemAgain = allowRedeemAgain;
+        this.batchSize = Math.max(1, batchSize);
+        this.expiredPath = expiredPath;
+    }
+
+    /**
+     * Queues the whitelistings of all channels and checks for due whitelistings every {@code intervalSeconds} seconds
+     */
+    public void start(long intervalSeconds) {
+        load();
+        for (TwitchChannel channel : plugin.getChannels()) {
+            for (TwitchWhitelisting whitelisting : channel.getWhitelistingStore().getWhitelistings()) {
+                schedule(channel, whitelisting);
+            }
+        }
+
+        long intervalTicks = Math.max(1, intervalSeconds) * 20;
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::expireDue, 20, intervalTicks);
+    }
+
+    /**
+     * Queues a new whitelisting
+     */
+    public void schedule(TwitchChannel channel, TwitchWhitelisting whitelisting) {
+        long dueAt = dueAt(whitelisting, 0);
+        if (dueAt == Long.MAX_VALUE) return;
+
+        synchronized (this) {
+            if (expired.contains(key(channel, whitelisting))) return;
+            queue.add(new Scheduled(dueAt, channel, whitelisting));
+        }
+    }
+
+    private long dueAt(TwitchWhitelisting whitelisting, long lastSeen) {
+        long redeemedAt = whitelisting.whitelistDate().getTime();
+        long dueAt = Long.MAX_VALUE;
+        if (afterRedemptionMillis > 0) dueAt = redeemedAt + afterRedemptionMillis;
+        if (afterInactivityMillis > 0) dueAt = Math.min(dueAt, Math.max(redeemedAt, lastSeen) + afterInactivityMillis);
+        return dueAt;
+    }
+
+    private static String key(TwitchChannel channel, TwitchWhitelisting whitelisting) {
+        return channel.getConfig().getKey() + "\t" + WhitelistingIndex.normalize(whitelisting.twitchUsername()) + "\t" + whitelisting.whitelistDate().getTime();
+    }
+
+    /**
+     * Expires up to one batch of due whitelistings. Runs on the main thread.
+     */
+    private void expireDue() {
+        long now = System.currentTimeMillis();
+        List<Scheduled> due = new ArrayList<>();
+        synchronized (this) {
+            while (due.size() < batchSize && !queue.isEmpty() && queue.peek().dueAt() <= now) {
+                due.add(queue.poll());
+            }
+        }
+        if (due.isEmpty()) return;
+
+        List<Scheduled> expiredNow = new ArrayList<>(due.size());
+        for (Scheduled scheduled : due) {
+            TwitchWhitelisting whitelisting = scheduled.whitelisting();
+            // removed by hand or by another server in the meantime
+            if (!scheduled.channel().getWhitelistingStore().getByMinecraftUsername(whitelisting.minecraftUsername()).contains(whitelisting)) continue;
+
+            long dueAt = dueAt(whitelisting, lastSeen(whitelisting, now));
+            if (dueAt > now) {
+                synchronized (this) {
+                    queue.add(new Scheduled(dueAt, scheduled.channel(), whitelisting));
+                }
+                continue;
+            }
+
+            ChannelConfig config = scheduled.channel().getConfig();
+            String command = (whitelisting.isJava() ? config.getJavaUnwhitelistCommand() : config.getBedrockUnwhitelistCommand())
+                    .render(context.reset().username(whitelisting.minecraftUsername()).twitch(whitelisting.twitchUsername()).isJava(whitelisting.isJava()));
+            if (!command.isEmpty()) {
+                try {
+                    plugin.getServer().dispatchCommand(plugin.getServer().getConsoleSender(), command);
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to run command: " + command, e);
+                }
+            }
+            expiredNow.add(scheduled);
+        }
+
+        if (!expiredNow.isEmpty()) {
+            // the dispatched removal commands fire no command event, the index has to be told
+            plugin.getPlayerAccessIndex().requestRefresh();
+            plugin.getLogger().log(Level.INFO, "Expired " + expiredNow.size() + " whitelisting(s).");
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> persist(expiredNow));
+        }
+
+        // a full batch means more may be due, continue on the next tick instead of waiting for the interval
+        if (due.size() == batchSize) {
+            plugin.getServer().getScheduler().runTask(plugin, this::expireDue);
+        }
+    }
+
+    /**
+     * Gets the time a player was last seen, now if they are online and 0 if they never joined
+     */
+    private long lastSeen(TwitchWhitelisting whitelisting, long now) {
+        OfflinePlayer player = plugin.getServer().getOfflinePlayerIfCached(whitelisting.minecraftUsername());
+        if (player == null) return 0;
+        return player.isOnline() ? now : player.getLastSeen();
+    }
+
+    private void persist(List<Scheduled> expiredNow) {
+        if (allowRedeemAgain) {
+            Set<WhitelistingStore> changed = new HashSet<>();
+            for (Scheduled scheduled : expiredNow) {
+                WhitelistingStore store = scheduled.channel().getWhitelistingStore();
+                store.removeWhitelisting(scheduled.whitelisting());
+                changed.add(store);
+            }
+            for (WhitelistingStore store : changed) {
+                store.save();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            for (Scheduled scheduled : expiredNow) {
+                expired.add(key(scheduled.channel(), scheduled.whitelisting()));
+            }
+            save();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(expiredPath)) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(expiredPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.indexOf('\t') > 0) expired.add(line);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to read the expired whitelistings from " + expiredPath, e);
+        }
+    }
+
+    private void save() {
+        Path temporaryPath = expiredPath.resolveSibling(expiredPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+            for (String key : expired) {
+                writer.write(key);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to write the expired whitelistings to " + temporaryPath, e);
+            return;
+        }
+
+        try {
+            Files.move(temporaryPath, expiredPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to replace the expired whitelistings at " + expiredPath, e);
+        }
+    }
+
+    public void shutdown() {
+        if (task != null) task.cancel();
+    }
+}
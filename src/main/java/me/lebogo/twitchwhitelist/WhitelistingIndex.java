@@ -0,0 +1,207 @@
+package me.lebogo.twitchwhitelist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory list of whitelistings with the lookup, completion and paging indexes every store keeps.
+ * Not thread-safe, the stores guard it with their own lock.
+ * <p>
+ * The full list and the per-edition lists are handed out as immutable {@link ChunkedList} snapshots. A snapshot shares
+ * the unchanged chunks with the lists, and the last one is published so readers can take it without the store's lock.
+ */
+final class WhitelistingIndex {
+    private final ChunkedList<TwitchWhitelisting> whitelistings = new ChunkedList<>();
+    private final Map<String, TwitchWhitelisting> byTwitchUsername = new HashMap<>();
+    private final Map<String, List<TwitchWhitelisting>> byMinecraftUsername = new HashMap<>();
+    private final ChunkedList<TwitchWhitelisting> javaWhitelistings = new ChunkedList<>();
+    private final ChunkedList<TwitchWhitelisting> bedrockWhitelistings = new ChunkedList<>();
+    private final PrefixIndex twitchUsernamePrefixes = new PrefixIndex();
+    private final TreeMap<String, TwitchWhitelisting> byTwitchUsernameSorted = new TreeMap<>();
+    private final TreeMap<Long, List<TwitchWhitelisting>> byWhitelistDate = new TreeMap<>();
+    private final PrefixIndex minecraftUsernamePrefixes = new PrefixIndex();
+
+    /**
+     * Normalizes a username for index lookups. Twitch logins and Minecraft usernames are case-insensitive.
+     *
+     * @param username Username to normalize
+     * @return Lower-cased username
+     */
+    static String normalize(String username) {
+        return username == null ? "" : username.toLowerCase(Locale.ROOT);
+    }
+
+    void add(TwitchWhitelisting whitelisting) {
+        whitelistings.add(whitelisting);
+        byTwitchUsername.put(normalize(whitelisting.twitchUsername()), whitelisting);
+        byTwitchUsernameSorted.put(normalize(whitelisting.twitchUsername()), whitelisting);
+        byWhitelistDate.computeIfAbsent(whitelisting.whitelistDate().getTime(), k -> new ArrayList<>(1)).add(whitelisting);
+        byMinecraftUsername.computeIfAbsent(normalize(whitelisting.minecraftUsername()), k -> new ArrayList<>(1)).add(whitelisting);
+        (whitelisting.isJava() ? javaWhitelistings : bedrockWhitelistings).add(whitelisting);
+        twitchUsernamePrefixes.add(whitelisting.twitchUsername());
+        minecraftUsernamePrefixes.add(whitelisting.minecraftUsername());
+    }
+
+    /**
+     * @return false if the whitelisting was not in the index
+     */
+    boolean remove(TwitchWhitelisting whitelisting) {
+        if (!whitelistings.remove(whitelisting)) return false;
+
+        byTwitchUsername.remove(normalize(whitelisting.twitchUsername()), whitelisting);
+        byTwitchUsernameSorted.remove(normalize(whitelisting.twitchUsername()), whitelisting);
+
+        long date = whitelisting.whitelistDate().getTime();
+        List<TwitchWhitelisting> dateEntries = byWhitelistDate.get(date);
+        if (dateEntries != null) {
+            dateEntries.remove(whitelisting);
+            if (dateEntries.isEmpty()) byWhitelistDate.remove(date);
+        }
+
+        String minecraftKey = normalize(whitelisting.minecraftUsername());
+        List<TwitchWhitelisting> minecraftEntries = byMinecraftUsername.get(minecraftKey);
+        if (minecraftEntries != null) {
+            minecraftEntries.remove(whitelisting);
+            if (minecraftEntries.isEmpty()) byMinecraftUsername.remove(minecraftKey);
+        }
+
+        (whitelisting.isJava() ? javaWhitelistings : bedrockWhitelistings).remove(whitelisting);
+        twitchUsernamePrefixes.remove(whitelisting.twitchUsername());
+        minecraftUsernamePrefixes.remove(whitelisting.minecraftUsername());
+        return true;
+    }
+
+    void clear() {
+        whitelistings.clear();
+        byTwitchUsername.clear();
+        byTwitchUsernameSorted.clear();
+        byWhitelistDate.clear();
+        byMinecraftUsername.clear();
+        javaWhitelistings.clear();
+        bedrockWhitelistings.clear();
+        twitchUsernamePrefixes.clear();
+        minecraftUsernamePrefixes.clear();
+    }
+
+    /**
+     * Gets the published snapshot without locking
+     *
+     * @return Immutable list of all whitelistings, or null if it changed since the last snapshot was taken
+     */
+    List<TwitchWhitelisting> getPublishedSnapshot() {
+        return whitelistings.getPublishedSnapshot();
+    }
+
+    /**
+     * Gets an immutable snapshot of all whitelistings. Must be called under the store's lock.
+     */
+    List<TwitchWhitelisting> getWhitelistings() {
+        return whitelistings.snapshot();
+    }
+
+    boolean isEmpty() {
+        return whitelistings.size() == 0;
+    }
+
+    TwitchWhitelisting getByTwitchUsername(String twitchUsername) {
+        return byTwitchUsername.get(normalize(twitchUsername));
+    }
+
+    boolean hasTwitchUsername(String twitchUsername) {
+        return byTwitchUsername.containsKey(normalize(twitchUsername));
+    }
+
+    List<TwitchWhitelisting> getByMinecraftUsername(String minecraftUsername) {
+        List<TwitchWhitelisting> entries = byMinecraftUsername.get(normalize(minecraftUsername));
+        return entries == null ? List.of() : List.copyOf(entries);
+    }
+
+    List<TwitchWhitelisting> getByEdition(boolean isJava) {
+        return (isJava ? javaWhitelistings : bedrockWhitelistings).snapshot();
+    }
+
+    int completeTwitchUsername(String prefix, int limit, Collection<String> out) {
+        return twitchUsernamePrefixes.complete(prefix, limit, out);
+    }
+
+    int completeMinecraftUsername(String prefix, int limit, Collection<String> out) {
+        return minecraftUsernamePrefixes.complete(prefix, limit, out);
+    }
+
+    int collectByTwitchUsername(String prefix, int skip, int limit, List<TwitchWhitelisting> out) {
+        String key = normalize(prefix);
+        Iterator<Map.Entry<String, TwitchWhitelisting>> entries = byTwitchUsernameSorted.tailMap(key, true).entrySet().iterator();
+        return collect(new Iterator<>() {
+            private Map.Entry<String, TwitchWhitelisting> next = advance();
+
+            private Map.Entry<String, TwitchWhitelisting> advance() {
+                if (!entries.hasNext()) return null;
+                Map.Entry<String, TwitchWhitelisting> entry = entries.next();
+                return entry.getKey().startsWith(key) ? entry : null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public TwitchWhitelisting next() {
+                TwitchWhitelisting value = next.getValue();
+                next = advance();
+                return value;
+            }
+        }, skip, limit, out);
+    }
+
+    int collectByMinecraftUsername(String minecraftUsername, int skip, int limit, List<TwitchWhitelisting> out) {
+        List<TwitchWhitelisting> entries = byMinecraftUsername.getOrDefault(normalize(minecraftUsername), List.of());
+        return collect(entries.iterator(), skip, limit, out);
+    }
+
+    int collectSince(Date since, int skip, int limit, List<TwitchWhitelisting> out) {
+        Iterator<List<TwitchWhitelisting>> days = byWhitelistDate.tailMap(since.getTime(), true).values().iterator();
+        return collect(new Iterator<>() {
+            private Iterator<TwitchWhitelisting> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && days.hasNext()) current = days.next().iterator();
+                return current.hasNext();
+            }
+
+            @Override
+            public TwitchWhitelisting next() {
+                hasNext();
+                return current.next();
+            }
+        }, skip, limit, out);
+    }
+
+    int collectByEdition(boolean isJava, int skip, int limit, List<TwitchWhitelisting> out) {
+        return collect((isJava ? javaWhitelistings : bedrockWhitelistings).snapshot().iterator(), skip, limit, out);
+    }
+
+    private static int collect(Iterator<TwitchWhitelisting> entries, int skip, int limit, List<TwitchWhitelisting> out) {
+        int skipped = 0;
+        int added = 0;
+        while (added < limit && entries.hasNext()) {
+            TwitchWhitelisting entry = entries.next();
+            if (skipped < skip) {
+                skipped++;
+            } else {
+                out.add(entry);
+                added++;
+            }
+        }
+        return skipped;
+    }
+}
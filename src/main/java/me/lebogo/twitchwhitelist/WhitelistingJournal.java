@@ -0,0 +1,227 @@
+package me.lebogo.twitchwhitelist;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of whitelisting changes. Every add or remove is written as one line:
+ * <pre>
+ * +	twitchUsername	minecraftUsername	epochMillis	J|B
+ * -	twitchUsername	minecraftUsername	epochMillis	J|B
+ * </pre>
+ * Fields are tab separated, tabs, newlines and backslashes inside fields are escaped.
+ */
+public class WhitelistingJournal {
+    private final Path path;
+    private final Path compactingPath;
+    private BufferedWriter writer;
+
+    public WhitelistingJournal(Path path) {
+        this.path = path;
+        this.compactingPath = path.resolveSibling(path.getFileName() + ".compacting");
+    }
+
+    /**
+     * Replays a leftover journal of an interrupted compaction and then the live journal.
+     *
+     * @param onAdd    Called for every add record
+     * @param onRemove Called for every remove record
+     */
+    public void replay(Consumer<TwitchWhitelisting> onAdd, Consumer<TwitchWhitelisting> onRemove) throws IOException {
+        replay(compactingPath, onAdd, onRemove);
+        replay(path, onAdd, onRemove);
+    }
+
+    private void replay(Path file, Consumer<TwitchWhitelisting> onAdd, Consumer<TwitchWhitelisting> onRemove) throws IOException {
+        if (!Files.exists(file)) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                // a torn last line from a crash mid-write is skipped
+                if (fields.length != 5) continue;
+
+                TwitchWhitelisting whitelisting;
+                try {
+                    whitelisting = new TwitchWhitelisting(unescape(fields[1]), unescape(fields[2]), new Date(Long.parseLong(fields[3])), "J".equals(fields[4]));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                if ("+".equals(fields[0])) {
+                    onAdd.accept(whitelisting);
+                } else if ("-".equals(fields[0])) {
+                    onRemove.accept(whitelisting);
+                }
+            }
+        }
+    }
+
+    public void appendAdd(TwitchWhitelisting whitelisting) throws IOException {
+        append('+', whitelisting);
+    }
+
+    public void appendRemove(TwitchWhitelisting whitelisting) throws IOException {
+        append('-', whitelisting);
+    }
+
+    private void append(char operation, TwitchWhitelisting whitelisting) throws IOException {
+        BufferedWriter out = writer();
+        out.write(operation);
+        out.write('\t');
+        out.write(escape(whitelisting.twitchUsername()));
+        out.write('\t');
+        out.write(escape(whitelisting.minecraftUsername()));
+        out.write('\t');
+        out.write(Long.toString(whitelisting.whitelistDate().getTime()));
+        out.write('\t');
+        out.write(whitelisting.isJava() ? 'J' : 'B');
+        out.write('\n');
+    }
+
+    /**
+     * Flushes buffered records to the journal file
+     */
+    public void flush() throws IOException {
+        if (writer != null) writer.flush();
+    }
+
+    /**
+     * Gets the size of the live journal file
+     *
+     * @return Size in bytes, 0 if it does not exist
+     */
+    public long size() {
+        try {
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Moves the live journal aside so a snapshot can be written while new records go to a fresh journal.
+     * Must be followed by {@link #finishCompaction()} once the snapshot is durable.
+     *
+     * @return false if a previous compaction has not finished yet
+     */
+    public boolean beginCompaction() throws IOException {
+        if (Files.exists(compactingPath)) return false;
+
+        close();
+        if (Files.exists(path)) {
+            Files.move(path, compactingPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the journal that was moved aside by {@link #beginCompaction()}
+     */
+    public void finishCompaction() throws IOException {
+        Files.deleteIfExists(compactingPath);
+    }
+
+    /**
+     * @return true if a journal moved aside by {@link #beginCompaction()} still waits for its snapshot
+     */
+    public boolean isCompacting() {
+        return Files.exists(compactingPath);
+    }
+
+    /**
+     * Puts the journal that was moved aside by {@link #beginCompaction()} back in front of the live journal,
+     * so a later compaction can be started after its snapshot could not be written.
+     * If this is interrupted, replaying both files applies the live records twice, which ends in the same state.
+     */
+    public void abortCompaction() throws IOException {
+        if (!Files.exists(compactingPath)) return;
+
+        close();
+        if (Files.exists(path)) {
+            try (OutputStream out = Files.newOutputStream(compactingPath, StandardOpenOption.APPEND)) {
+                Files.copy(path, out);
+            }
+        }
+        Files.move(compactingPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes both journal files after their content has been written to a snapshot
+     */
+    public void clear() throws IOException {
+        close();
+        Files.deleteIfExists(compactingPath);
+        Files.deleteIfExists(path);
+    }
+
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private BufferedWriter writer() throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return writer;
+    }
+
+    /**
+     * Escapes a value for a tab separated line, null becomes an empty string
+     */
+    public static String escape(String value) {
+        if (value == null) return "";
+        StringBuilder builder = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = switch (c) {
+                case '\\' -> "\\\\";
+                case '\t' -> "\\t";
+                case '\n' -> "\\n";
+                case '\r' -> "\\r";
+                default -> null;
+            };
+            if (replacement != null && builder == null) {
+                builder = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (builder != null) {
+                if (replacement != null) builder.append(replacement);
+                else builder.append(c);
+            }
+        }
+        return builder == null ? value : builder.toString();
+    }
+
+    public static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                builder.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
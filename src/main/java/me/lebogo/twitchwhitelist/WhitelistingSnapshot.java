@@ -0,0 +1,147 @@
+package me.lebogo.twitchwhitelist;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of a whitelisting store. It is read through a memory-mapped file without building intermediate maps.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * int     magic "TWWL"
+ * int     version
+ * int     string count, then per string: unsigned short byte length, UTF-8 bytes
+ * int     entry count, then per entry: int twitch username index, int minecraft username index, long epoch millis, byte flags
+ * int     CRC32 of everything before it
+ * </pre>
+ * Usernames are stored once in the string table, a viewer who redeemed for their own name costs a single string.
+ * Flag bit 0 is set for Java edition.
+ */
+final class WhitelistingSnapshot {
+    private static final int MAGIC = 0x5457574C;
+    private static final int VERSION = 1;
+    private static final int FLAG_JAVA = 1;
+
+    private WhitelistingSnapshot() {
+    }
+
+    /**
+     * Reads a snapshot
+     *
+     * @throws IOException if the file is not a snapshot of a supported version or is damaged
+     */
+    static List<TwitchWhitelisting> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 16 || size > Integer.MAX_VALUE) throw new IOException("Invalid snapshot size " + size + " of " + path);
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int checksumOffset = (int) size - 4;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, checksumOffset));
+            if ((int) crc.getValue() != buffer.getInt(checksumOffset)) throw new IOException("Checksum mismatch in " + path);
+
+            if (buffer.getInt() != MAGIC) throw new IOException(path + " is not a whitelisting snapshot");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + " of " + path);
+
+            String[] strings = new String[buffer.getInt()];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = Short.toUnsignedInt(buffer.getShort());
+                if (length > bytes.length) bytes = new byte[length];
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            int count = buffer.getInt();
+            List<TwitchWhitelisting> whitelistings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String twitchUsername = strings[buffer.getInt()];
+                String minecraftUsername = strings[buffer.getInt()];
+                Date whitelistDate = new Date(buffer.getLong());
+                boolean isJava = (buffer.get() & FLAG_JAVA) != 0;
+                whitelistings.add(new TwitchWhitelisting(twitchUsername, minecraftUsername, whitelistDate, isJava));
+            }
+            if (buffer.position() != checksumOffset) throw new IOException("Trailing data in " + path);
+            return whitelistings;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot " + path, e);
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file and moves it over the target, so a crash leaves the old snapshot intact
+     */
+    static void write(Path path, List<TwitchWhitelisting> whitelistings) throws IOException {
+        Map<String, Integer> indexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int[] references = new int[whitelistings.size() * 2];
+        for (int i = 0; i < whitelistings.size(); i++) {
+            TwitchWhitelisting whitelisting = whitelistings.get(i);
+            references[i * 2] = intern(whitelisting.twitchUsername(), indexes, strings);
+            references[i * 2 + 1] = intern(whitelisting.minecraftUsername(), indexes, strings);
+        }
+
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            OutputStream channelOut = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(channelOut, crc), 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(strings.size());
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) throw new IOException("Username too long for a snapshot: " + string);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(whitelistings.size());
+            for (int i = 0; i < whitelistings.size(); i++) {
+                TwitchWhitelisting whitelisting = whitelistings.get(i);
+                out.writeInt(references[i * 2]);
+                out.writeInt(references[i * 2 + 1]);
+                out.writeLong(whitelisting.whitelistDate().getTime());
+                out.writeByte(whitelisting.isJava() ? FLAG_JAVA : 0);
+            }
+            out.flush();
+
+            ByteBuffer checksum = ByteBuffer.allocate(4).putInt(0, (int) crc.getValue());
+            while (checksum.hasRemaining()) channel.write(checksum);
+            channel.force(false);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int intern(String string, Map<String, Integer> indexes, List<String> strings) {
+        String value = string == null ? "" : string;
+        Integer index = indexes.get(value);
+        if (index != null) return index;
+
+        indexes.put(value, strings.size());
+        strings.add(value);
+        return strings.size() - 1;
+    }
+}
@@ -1,83 +1,189 @@
 package me.lebogo.twitchwhitelist;
 
-import org.bukkit.configuration.file.YamlConfiguration;
-
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
-public class WhitelistingStore {
-    private final Path path;
-    private final YamlConfiguration config;
-
-    public WhitelistingStore(Path path) {
-        this.path = path;
-        this.config = new YamlConfiguration();
-
-        // check if path exists, if not create it
-        if (!path.toFile().exists()) {
-            try {
-                path.toFile().createNewFile();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-
-        // load the config
-        try {
-            config.load(path.toFile());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        // set default values
-        if (!config.contains("whitelistings")) {
-            config.set("whitelistings", new ArrayList<>());
-        }
-
-        save();
+/**
+ * Storage of the whitelistings redeemed in one channel. Implementations are thread-safe.
+ * Changes are serialized by the store, {@link #getWhitelistings()} hands out immutable snapshots without blocking them.
+ *
+ * @see YamlWhitelistingStore
+ * @see JdbcWhitelistingStore
+ */
+public interface WhitelistingStore {
+    /**
+     * Outcome of {@link #reserve(TwitchWhitelisting)}
+     */
+    enum Reservation {
+        /**
+         * The user is reserved and has to be released
+         */
+        GRANTED,
+        /**
+         * Another redemption of the user is in progress, it may still be refunded
+         */
+        BUSY,
+        /**
+         * The user already has a whitelisting
+         */
+        REDEEMED,
+        /**
+         * The storage could not be reached
+         */
+        FAILED
     }
 
+    /**
+     * Gets a snapshot of all TwitchWhitelisting objects
+     *
+     * @return Immutable list of TwitchWhitelisting objects, later changes are not reflected in it
+     */
+    List<TwitchWhitelisting> getWhitelistings();
 
     /**
-     * Gets a list of TwitchWhitelisting objects from the config
+     * Gets the whitelisting redeemed by a Twitch user
      *
-     * @return List of TwitchWhitelisting objects
+     * @param twitchUsername Twitch login, case-insensitive
+     * @return The TwitchWhitelisting or null if the user has not redeemed one
      */
-    public List<TwitchWhitelisting> getWhitelistings() {
-        List<?> whitelistings = config.getList("whitelistings");
-        if (whitelistings == null) return new ArrayList<>();
-        return (List<TwitchWhitelisting>) whitelistings;
-    }
+    TwitchWhitelisting getByTwitchUsername(String twitchUsername);
+
+    /**
+     * Checks if a Twitch user already has a whitelisting
+     *
+     * @param twitchUsername Twitch login, case-insensitive
+     * @return true if a whitelisting exists for the user
+     */
+    boolean hasTwitchUsername(String twitchUsername);
+
+    /**
+     * Reserves a Twitch user for a redemption in progress. At most one reservation per user is granted at a time,
+     * and none while the user has a whitelisting, so two redemptions of the same viewer can not both pass.
+     * A store shared between servers claims the whitelisting in the shared storage before granting it.
+     *
+     * @param twitchWhitelisting Whitelisting the redemption adds once it succeeds
+     * @return {@link Reservation#GRANTED} if the reservation must be released with {@link #release(TwitchWhitelisting)}
+     */
+    Reservation reserve(TwitchWhitelisting twitchWhitelisting);
+
+    /**
+     * Reserves a Twitch user for a redemption that was granted a reservation before a restart.
+     * A claim the redemption left in the shared storage is taken over instead of counting as a whitelisting.
+     *
+     * @param twitchWhitelisting Whitelisting the redemption adds once it succeeds
+     * @return {@link Reservation#GRANTED} if the reservation must be released with {@link #release(TwitchWhitelisting)}
+     * @see #reserve(TwitchWhitelisting)
+     */
+    Reservation reclaim(TwitchWhitelisting twitchWhitelisting);
+
+    /**
+     * Releases a reservation granted by {@link #reserve(TwitchWhitelisting)} or {@link #reclaim(TwitchWhitelisting)}.
+     * If the whitelisting was not added in the meantime, its claim is dropped.
+     *
+     * @param twitchWhitelisting The reserved whitelisting
+     * @return true if a claim in the shared storage was dropped
+     */
+    boolean release(TwitchWhitelisting twitchWhitelisting);
+
+    /**
+     * Gets all whitelistings for a Minecraft username
+     *
+     * @param minecraftUsername Minecraft username, case-insensitive
+     * @return Unmodifiable list of matching TwitchWhitelisting objects
+     */
+    List<TwitchWhitelisting> getByMinecraftUsername(String minecraftUsername);
+
+    /**
+     * Gets all whitelistings of one edition
+     *
+     * @param isJava true for Java Edition, false for Bedrock Edition
+     * @return Unmodifiable list of matching TwitchWhitelisting objects
+     */
+    List<TwitchWhitelisting> getByEdition(boolean isJava);
+
+    /**
+     * Adds the Twitch usernames starting with a prefix to a collection, in alphabetical order
+     *
+     * @param prefix Prefix, case-insensitive
+     * @param limit  Maximum number of usernames to add
+     * @param out    Collection the usernames are added to
+     * @return Number of usernames that were added
+     */
+    int completeTwitchUsername(String prefix, int limit, Collection<String> out);
 
+    /**
+     * Adds the Minecraft usernames starting with a prefix to a collection, in alphabetical order
+     *
+     * @param prefix Prefix, case-insensitive
+     * @param limit  Maximum number of usernames to add
+     * @param out    Collection the usernames are added to
+     * @return Number of usernames that were added
+     */
+    int completeMinecraftUsername(String prefix, int limit, Collection<String> out);
+
+    /**
+     * Collects one page of whitelistings whose Twitch username starts with a prefix, in alphabetical order.
+     * Only the entries up to the end of the page are visited.
+     *
+     * @param prefix Prefix, case-insensitive, empty for all whitelistings
+     * @param skip   Number of matching entries to skip
+     * @param limit  Maximum number of entries to add
+     * @param out    List the entries are added to
+     * @return Number of entries that were skipped, less than {@code skip} if there were not enough matches
+     */
+    int collectByTwitchUsername(String prefix, int skip, int limit, List<TwitchWhitelisting> out);
+
+    /**
+     * Collects one page of whitelistings for a Minecraft username
+     *
+     * @see #collectByTwitchUsername(String, int, int, List)
+     */
+    int collectByMinecraftUsername(String minecraftUsername, int skip, int limit, List<TwitchWhitelisting> out);
+
+    /**
+     * Collects one page of whitelistings made at or after a date, oldest first
+     *
+     * @see #collectByTwitchUsername(String, int, int, List)
+     */
+    int collectSince(Date since, int skip, int limit, List<TwitchWhitelisting> out);
 
     /**
-     * Adds a TwitchWhitelisting object to the config
+     * Collects one page of whitelistings of one edition, in the order they were added
+     *
+     * @see #collectByTwitchUsername(String, int, int, List)
+     */
+    int collectByEdition(boolean isJava, int skip, int limit, List<TwitchWhitelisting> out);
+
+    /**
+     * Adds a TwitchWhitelisting object to the store
      *
      * @param twitchWhitelisting TwitchWhitelisting object to add
      */
-    public void addWhitelisting(TwitchWhitelisting twitchWhitelisting) {
-        List<TwitchWhitelisting> whitelistings = getWhitelistings();
-        whitelistings.add(twitchWhitelisting);
-        config.set("whitelistings", whitelistings);
-    }
+    void addWhitelisting(TwitchWhitelisting twitchWhitelisting);
 
     /**
-     * Removes a TwitchWhitelisting object from the config
+     * Removes a TwitchWhitelisting object from the store
      *
      * @param twitchWhitelisting TwitchWhitelisting object to remove
      */
-    public void removeWhitelisting(TwitchWhitelisting twitchWhitelisting) {
-        List<TwitchWhitelisting> whitelistings = getWhitelistings();
-        whitelistings.remove(twitchWhitelisting);
-        config.set("whitelistings", whitelistings);
-    }
+    void removeWhitelisting(TwitchWhitelisting twitchWhitelisting);
 
-    public void save() {
-        try {
-            config.save(path.toFile());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
+    /**
+     * Persists pending changes
+     */
+    void save();
+
+    /**
+     * Exports all whitelistings to a YAML file so they can be read and edited by hand
+     *
+     * @return Path of the written YAML file
+     */
+    Path exportYaml() throws Exception;
+
+    /**
+     * Writes pending changes and releases the store's resources
+     */
+    void close();
 }
@@ -0,0 +1,431 @@
+package me.lebogo.twitchwhitelist;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Store backed by a YAML or binary snapshot file, optionally with an append-only journal
+ */
+public class YamlWhitelistingStore implements WhitelistingStore {
+    private final Path path;
+    private final Path binaryPath;
+    private final YamlConfiguration config;
+    private final WhitelistingJournal journal;
+    private final long compactionThreshold;
+    private final ExecutorService compactionExecutor;
+    private final Logger logger;
+
+    private final WhitelistingIndex index = new WhitelistingIndex();
+    private final Set<String> reservations = ConcurrentHashMap.newKeySet();
+
+    public YamlWhitelistingStore(Path path) {
+        this(path, false, 0);
+    }
+
+    /**
+     * Creates a store backed by a YAML snapshot at the given path.
+     * In journal mode every change is appended to a journal next to the snapshot,
+     * which is folded back into the snapshot in the background once it grows past the compaction threshold.
+     *
+     * @param path                Path of the YAML snapshot
+     * @param journaling          true to persist changes through the append-only journal
+     * @param compactionThreshold Journal size in bytes that triggers a compaction
+     */
+    public YamlWhitelistingStore(Path path, boolean journaling, long compactionThreshold) {
+        this(path, journaling, compactionThreshold, false);
+    }
+
+    /**
+     * Creates a store backed by a YAML or binary snapshot.
+     * The binary snapshot lives next to the YAML file with a .bin extension. If it does not exist yet,
+     * the YAML file is imported once and written as the first binary snapshot.
+     *
+     * @param path                Path of the YAML snapshot
+     * @param journaling          true to persist changes through the append-only journal
+     * @param compactionThreshold Journal size in bytes that triggers a compaction
+     * @param binarySnapshot      true to keep the snapshot in the binary format
+     * @see WhitelistingSnapshot
+     */
+    public YamlWhitelistingStore(Path path, boolean journaling, long compactionThreshold, boolean binarySnapshot) {
+        this(path, journaling, compactionThreshold, binarySnapshot, Logger.getLogger(YamlWhitelistingStore.class.getName()));
+    }
+
+    /**
+     * Creates a store that reports failures to the given logger
+     *
+     * @see #YamlWhitelistingStore(Path, boolean, long, boolean)
+     */
+    public YamlWhitelistingStore(Path path, boolean journaling, long compactionThreshold, boolean binarySnapshot, Logger logger) {
+        this.path = path;
+        this.logger = logger;
+        this.config = new YamlConfiguration();
+        this.compactionThreshold = compactionThreshold;
+        String snapshotName = path.getFileName().toString();
+        String baseName = snapshotName.endsWith(".yml") ? snapshotName.substring(0, snapshotName.length() - 4) : snapshotName;
+        this.binaryPath = binarySnapshot ? path.resolveSibling(baseName + ".bin") : null;
+        this.journal = journaling ? new WhitelistingJournal(path.resolveSibling(baseName + ".journal")) : null;
+        this.compactionExecutor = journaling ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TwitchWhitelist-Compaction");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        boolean loaded = false;
+        if (binaryPath != null && Files.exists(binaryPath)) {
+            try {
+                for (TwitchWhitelisting whitelisting : WhitelistingSnapshot.read(binaryPath)) {
+                    index.add(whitelisting);
+                }
+                loaded = true;
+            } catch (IOException e) {
+                // fall back to the YAML file, it is at least as old as the damaged snapshot
+                index.clear();
+                moveAside(binaryPath, e);
+            }
+        }
+
+        if (!loaded) {
+            loadYaml();
+            if (binaryPath != null) {
+                try {
+                    WhitelistingSnapshot.write(binaryPath, index.getWhitelistings());
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Failed to write the binary snapshot " + binaryPath, e);
+                }
+            }
+        }
+
+        if (journal == null) {
+            // a freshly read or imported binary snapshot does not need to be written again
+            if (binaryPath == null) save();
+            return;
+        }
+
+        // an existing whitelistings.yml simply becomes the first snapshot, the journal is replayed on top of it
+        try {
+            journal.replay(this::replayAdd, this::replayRemove);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to replay the whitelisting journal", e);
+        }
+
+        if (journal.isCompacting()) {
+            finishInterruptedCompaction();
+        }
+        if (journal.size() > compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Keeps a damaged binary snapshot as .bin.corrupt, so the snapshot written from the YAML file does not replace
+     * whitelistings that only the damaged file still holds
+     */
+    private void moveAside(Path damagedPath, IOException cause) {
+        Path corruptPath = damagedPath.resolveSibling(damagedPath.getFileName() + ".corrupt");
+        try {
+            Files.move(damagedPath, corruptPath, StandardCopyOption.REPLACE_EXISTING);
+            logger.log(Level.SEVERE, "The binary snapshot " + damagedPath + " is damaged, it was moved to " + corruptPath.getFileName()
+                    + " and the whitelistings were loaded from " + path.getFileName() + ". Changes made since that file was last written may be missing.", cause);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "The binary snapshot " + damagedPath + " is damaged and could not be moved aside, it will be overwritten", cause);
+        }
+    }
+
+    private void loadYaml() {
+        // check if path exists, if not create it
+        if (!path.toFile().exists()) {
+            try {
+                path.toFile().createNewFile();
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Failed to create " + path, e);
+            }
+        }
+
+        // load the config
+        try {
+            config.load(path.toFile());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to load " + path, e);
+        }
+
+        // build the in-memory list and indexes once
+        List<?> stored = config.getList("whitelistings");
+        if (stored != null) {
+            for (Object entry : stored) {
+                if (entry instanceof TwitchWhitelisting whitelisting) {
+                    index.add(whitelisting);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the published snapshot without locking, only the first call after a change takes a new one
+     */
+    @Override
+    public List<TwitchWhitelisting> getWhitelistings() {
+        List<TwitchWhitelisting> snapshot = index.getPublishedSnapshot();
+        if (snapshot != null) return snapshot;
+
+        synchronized (this) {
+            return index.getWhitelistings();
+        }
+    }
+
+    @Override
+    public synchronized TwitchWhitelisting getByTwitchUsername(String twitchUsername) {
+        return index.getByTwitchUsername(twitchUsername);
+    }
+
+    @Override
+    public synchronized boolean hasTwitchUsername(String twitchUsername) {
+        return index.hasTwitchUsername(twitchUsername);
+    }
+
+    @Override
+    public Reservation reserve(TwitchWhitelisting twitchWhitelisting) {
+        String login = WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername());
+        if (!reservations.add(login)) return Reservation.BUSY;
+        // checked after reserving, a whitelisting added by the previous holder is visible before it released the user
+        if (hasTwitchUsername(login)) {
+            reservations.remove(login);
+            return Reservation.REDEEMED;
+        }
+        return Reservation.GRANTED;
+    }
+
+    /**
+     * Nothing is claimed before a whitelisting is added, so this is the same as {@link #reserve(TwitchWhitelisting)}
+     */
+    @Override
+    public Reservation reclaim(TwitchWhitelisting twitchWhitelisting) {
+        return reserve(twitchWhitelisting);
+    }
+
+    @Override
+    public boolean release(TwitchWhitelisting twitchWhitelisting) {
+        reservations.remove(WhitelistingIndex.normalize(twitchWhitelisting.twitchUsername()));
+        return false;
+    }
+
+    @Override
+    public synchronized List<TwitchWhitelisting> getByMinecraftUsername(String minecraftUsername) {
+        return index.getByMinecraftUsername(minecraftUsername);
+    }
+
+    @Override
+    public synchronized List<TwitchWhitelisting> getByEdition(boolean isJava) {
+        return index.getByEdition(isJava);
+    }
+
+    @Override
+    public synchronized int completeTwitchUsername(String prefix, int limit, Collection<String> out) {
+        return index.completeTwitchUsername(prefix, limit, out);
+    }
+
+    @Override
+    public synchronized int completeMinecraftUsername(String prefix, int limit, Collection<String> out) {
+        return index.completeMinecraftUsername(prefix, limit, out);
+    }
+
+    @Override
+    public synchronized int collectByTwitchUsername(String prefix, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectByTwitchUsername(prefix, skip, limit, out);
+    }
+
+    @Override
+    public synchronized int collectByMinecraftUsername(String minecraftUsername, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectByMinecraftUsername(minecraftUsername, skip, limit, out);
+    }
+
+    @Override
+    public synchronized int collectSince(Date since, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectSince(since, skip, limit, out);
+    }
+
+    @Override
+    public synchronized int collectByEdition(boolean isJava, int skip, int limit, List<TwitchWhitelisting> out) {
+        return index.collectByEdition(isJava, skip, limit, out);
+    }
+
+    @Override
+    public synchronized void addWhitelisting(TwitchWhitelisting twitchWhitelisting) {
+        index.add(twitchWhitelisting);
+
+        if (journal != null) {
+            try {
+                journal.appendAdd(twitchWhitelisting);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to append to the whitelisting journal", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeWhitelisting(TwitchWhitelisting twitchWhitelisting) {
+        if (!index.remove(twitchWhitelisting)) return;
+
+        if (journal != null) {
+            try {
+                journal.appendRemove(twitchWhitelisting);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to append to the whitelisting journal", e);
+            }
+        }
+    }
+
+    /**
+     * Adds a replayed journal record unless the snapshot already contains it.
+     * Records of an interrupted compaction may already be part of the snapshot.
+     */
+    private void replayAdd(TwitchWhitelisting twitchWhitelisting) {
+        if (twitchWhitelisting.equals(index.getByTwitchUsername(twitchWhitelisting.twitchUsername()))) return;
+        index.add(twitchWhitelisting);
+    }
+
+    private void replayRemove(TwitchWhitelisting twitchWhitelisting) {
+        index.remove(twitchWhitelisting);
+    }
+
+    /**
+     * Persists pending changes. In YAML mode the whole file is rewritten,
+     * in journal mode the journal is flushed and compacted if it has grown too large.
+     */
+    @Override
+    public synchronized void save() {
+        if (journal == null) {
+            try {
+                writeSnapshot(path, binaryPath, index.getWhitelistings());
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Failed to save the whitelistings", e);
+            }
+            return;
+        }
+
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to flush the whitelisting journal", e);
+        }
+
+        if (journal.size() > compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Rotates the journal and writes a new snapshot in the background
+     */
+    private synchronized void compact() {
+        List<TwitchWhitelisting> snapshot;
+        try {
+            if (!journal.beginCompaction()) return;
+            snapshot = index.getWhitelistings();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to rotate the whitelisting journal", e);
+            return;
+        }
+
+        compactionExecutor.execute(() -> {
+            try {
+                writeSnapshot(path, binaryPath, snapshot);
+                journal.finishCompaction();
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Failed to compact the whitelisting journal, its records are kept in the live journal", e);
+                abortCompaction();
+            }
+        });
+    }
+
+    /**
+     * Writes the snapshot a crashed compaction did not finish. Its journal was replayed already, so the index is complete.
+     */
+    private void finishInterruptedCompaction() {
+        try {
+            writeSnapshot(path, binaryPath, index.getWhitelistings());
+            journal.finishCompaction();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to finish the interrupted compaction of the whitelisting journal", e);
+            abortCompaction();
+        }
+    }
+
+    /**
+     * Merges the journal of a failed compaction back, otherwise no further compaction could start
+     */
+    private synchronized void abortCompaction() {
+        try {
+            journal.abortCompaction();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to merge the journal of a failed compaction back, it is compacted on the next start", e);
+        }
+    }
+
+    /**
+     * Writes the snapshot in binary if a binary path is given, as YAML otherwise
+     */
+    private static void writeSnapshot(Path yamlPath, Path binaryPath, List<TwitchWhitelisting> snapshot) throws Exception {
+        if (binaryPath != null) {
+            WhitelistingSnapshot.write(binaryPath, snapshot);
+            return;
+        }
+
+        Path temporaryPath = yamlPath.resolveSibling(yamlPath.getFileName() + ".tmp");
+        YamlConfiguration snapshotConfig = new YamlConfiguration();
+        snapshotConfig.set("whitelistings", snapshot);
+        snapshotConfig.save(temporaryPath.toFile());
+        Files.move(temporaryPath, yamlPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * With a binary snapshot the YAML file is only imported again once the .bin file is deleted.
+     */
+    @Override
+    public Path exportYaml() throws Exception {
+        List<TwitchWhitelisting> snapshot = getWhitelistings();
+        // a separate temporary file, a compaction may be writing the YAML snapshot at the same time
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".export.tmp");
+        YamlConfiguration exportConfig = new YamlConfiguration();
+        exportConfig.set("whitelistings", snapshot);
+        exportConfig.save(temporaryPath.toFile());
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return path;
+    }
+
+    /**
+     * Flushes the journal and waits for a running compaction to finish
+     */
+    @Override
+    public void close() {
+        if (journal == null) return;
+
+        compactionExecutor.shutdown();
+        try {
+            compactionExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to close the whitelisting journal", e);
+            }
+        }
+    }
+}
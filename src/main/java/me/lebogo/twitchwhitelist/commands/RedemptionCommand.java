@@ -2,24 +2,54 @@ package me.lebogo.twitchwhitelist.commands;
 
 import io.papermc.paper.command.brigadier.BasicCommand;
 import io.papermc.paper.command.brigadier.CommandSourceStack;
+import me.lebogo.twitchwhitelist.TwitchChannel;
 import me.lebogo.twitchwhitelist.TwitchWhitelisting;
 import me.lebogo.twitchwhitelist.WhitelistingStore;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.Style;
 import net.kyori.adventure.text.format.TextColor;
 import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.NotNull;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.function.IntSupplier;
 
 public class RedemptionCommand implements BasicCommand {
+    private static final List<String> ACTIONS = List.of("show", "remove");
+    private static final List<String> QUERIES = List.of("list", "search", "by-minecraft", "since", "edition");
+    private static final List<String> EDITIONS = List.of("java", "bedrock");
+    private static final int PAGE_SIZE = 10;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
 
-    private final WhitelistingStore whitelistingStore;
+    /**
+     * Collects one page of matching whitelistings from a store, see {@link WhitelistingStore#collectByTwitchUsername}
+     */
+    private interface Query {
+        int collect(WhitelistingStore store, int skip, int limit, List<TwitchWhitelisting> out);
+    }
+
+    private final Plugin plugin;
+    private final Collection<TwitchChannel> channels;
+    private final IntSupplier maxSuggestions;
 
-    public RedemptionCommand(WhitelistingStore whitelistingStore) {
-        this.whitelistingStore = whitelistingStore;
+    /**
+     * @param plugin         Plugin used to schedule queries off the main thread
+     * @param channels       Live view of the channels whose whitelistings can be managed
+     * @param maxSuggestions Supplier of the maximum number of usernames offered by tab completion
+     */
+    public RedemptionCommand(Plugin plugin, Collection<TwitchChannel> channels, IntSupplier maxSuggestions) {
+        this.plugin = plugin;
+        this.channels = channels;
+        this.maxSuggestions = maxSuggestions;
     }
 
     @Override
@@ -33,18 +63,55 @@ public class RedemptionCommand implements BasicCommand {
             return;
         }
 
+        // a viewer called "list" etc. can still be shown or removed
+        if (args.length >= 1 && QUERIES.contains(args[0].toLowerCase(Locale.ROOT)) && (args.length < 2 || !ACTIONS.contains(args[1].toLowerCase(Locale.ROOT)))) {
+            query(executor, args);
+            return;
+        }
+
         if (args.length < 2) {
-            executor.sendMessage("Usage: /redemption <twitchUsername> <show|remove>");
+            executor.sendMessage("Usage: /redemption <twitchUsername|minecraftUsername> <show|remove>");
+            executor.sendMessage("       /redemption list [page]");
+            executor.sendMessage("       /redemption search <prefix> [page]");
+            executor.sendMessage("       /redemption by-minecraft <minecraftUsername> [page]");
+            executor.sendMessage("       /redemption since <yyyy-MM-dd> [page]");
+            executor.sendMessage("       /redemption edition <java|bedrock> [page]");
             return;
         }
 
-        String twitchUsername = args[0];
+        String username = args[0];
         String action = args[1];
+        // the database store may look the viewer up remotely and waits for its commit on save, keep that off the tick
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> manage(executor, username, action));
+    }
 
-        TwitchWhitelisting whitelisting = whitelistingStore.getWhitelistings().stream()
-                .filter(w -> w.twitchUsername().equalsIgnoreCase(twitchUsername))
-                .findFirst()
-                .orElse(null);
+    /**
+     * Shows or removes the whitelisting of a Twitch or Minecraft username. Runs on an async task.
+     */
+    private void manage(Entity executor, String twitchUsername, String action) {
+        // a viewer may have redeemed in several channels, use the first channel that has an entry
+        TwitchChannel channel = null;
+        TwitchWhitelisting whitelisting = null;
+        for (TwitchChannel candidate : channels) {
+            whitelisting = candidate.getWhitelistingStore().getByTwitchUsername(twitchUsername);
+            if (whitelisting != null) {
+                channel = candidate;
+                break;
+            }
+        }
+
+        // fall back to the Minecraft username the viewer redeemed for
+        if (whitelisting == null) {
+            for (TwitchChannel candidate : channels) {
+                List<TwitchWhitelisting> matches = candidate.getWhitelistingStore().getByMinecraftUsername(twitchUsername);
+                if (!matches.isEmpty()) {
+                    whitelisting = matches.getFirst();
+                    channel = candidate;
+                    twitchUsername = whitelisting.twitchUsername();
+                    break;
+                }
+            }
+        }
 
         if (whitelisting == null) {
             executor.sendMessage(Component.text("No whitelisting found for " + twitchUsername).style(Style.style(TextColor.color(0xFB5454))));
@@ -53,10 +120,12 @@ public class RedemptionCommand implements BasicCommand {
 
         if (action.equalsIgnoreCase("show")) {
             executor.sendMessage(Component.text("Whitelisting for " + twitchUsername).style(Style.style(TextColor.color(0x54FB54))));
+            executor.sendMessage(Component.text("Channel: " + channel.getConfig().getChannelName()).style(Style.style(TextColor.color(0x54FB54))));
             executor.sendMessage(Component.text("Minecraft Username: " + whitelisting.minecraftUsername()).style(Style.style(TextColor.color(0x54FB54))));
             executor.sendMessage(Component.text("Whitelist Date: " + whitelisting.whitelistDate()).style(Style.style(TextColor.color(0x54FB54))));
             executor.sendMessage(Component.text("Is Java: " + whitelisting.isJava()).style(Style.style(TextColor.color(0x54FB54))));
         } else if (action.equalsIgnoreCase("remove")) {
+            WhitelistingStore whitelistingStore = channel.getWhitelistingStore();
             whitelistingStore.removeWhitelisting(whitelisting);
             whitelistingStore.save();
             executor.sendMessage(Component.text("Whitelisting for " + twitchUsername + " removed").style(Style.style(TextColor.color(0x54FB54))));
@@ -65,6 +134,108 @@ public class RedemptionCommand implements BasicCommand {
         }
     }
 
+    /**
+     * Runs a query subcommand on an async task and sends the requested page to the executor
+     */
+    private void query(Entity executor, String[] args) {
+        String type = args[0].toLowerCase(Locale.ROOT);
+        int argumentCount = type.equals("list") ? 0 : 1;
+        if (args.length < 1 + argumentCount || args.length > 2 + argumentCount) {
+            executor.sendMessage(Component.text("Usage: /redemption " + type + (argumentCount == 0 ? "" : " <" + switch (type) {
+                case "search" -> "prefix";
+                case "by-minecraft" -> "minecraftUsername";
+                case "since" -> "yyyy-MM-dd";
+                default -> "java|bedrock";
+            } + ">") + " [page]").style(Style.style(TextColor.color(0xFB5454))));
+            return;
+        }
+
+        int page = 1;
+        if (args.length == 2 + argumentCount) {
+            try {
+                page = Integer.parseInt(args[1 + argumentCount]);
+            } catch (NumberFormatException e) {
+                page = 0;
+            }
+            if (page < 1) {
+                executor.sendMessage(Component.text("Invalid page: " + args[1 + argumentCount]).style(Style.style(TextColor.color(0xFB5454))));
+                return;
+            }
+        }
+
+        String argument = argumentCount == 0 ? "" : args[1];
+        Query query;
+        switch (type) {
+            case "list" -> query = (store, skip, limit, out) -> store.collectByTwitchUsername("", skip, limit, out);
+            case "search" -> query = (store, skip, limit, out) -> store.collectByTwitchUsername(argument, skip, limit, out);
+            case "by-minecraft" -> query = (store, skip, limit, out) -> store.collectByMinecraftUsername(argument, skip, limit, out);
+            case "since" -> {
+                Date since;
+                try {
+                    since = Date.from(LocalDate.parse(argument, DATE_FORMAT).atStartOfDay(ZoneId.systemDefault()).toInstant());
+                } catch (DateTimeParseException e) {
+                    executor.sendMessage(Component.text("Invalid date: " + argument + ", expected yyyy-MM-dd").style(Style.style(TextColor.color(0xFB5454))));
+                    return;
+                }
+                query = (store, skip, limit, out) -> store.collectSince(since, skip, limit, out);
+            }
+            default -> {
+                if (!EDITIONS.contains(argument.toLowerCase(Locale.ROOT))) {
+                    executor.sendMessage(Component.text("Invalid edition: " + argument + ", expected java or bedrock").style(Style.style(TextColor.color(0xFB5454))));
+                    return;
+                }
+                boolean isJava = argument.equalsIgnoreCase("java");
+                query = (store, skip, limit, out) -> store.collectByEdition(isJava, skip, limit, out);
+            }
+        }
+
+        String title = String.join(" ", List.of(args).subList(0, 1 + argumentCount));
+        int pageNumber = page;
+        // large stores would stall the tick, the stores are synchronized and safe to read from here
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            for (Component line : page(query, title, pageNumber)) {
+                executor.sendMessage(line);
+            }
+        });
+    }
+
+    private List<Component> page(Query query, String title, int page) {
+        // one entry more than a page tells whether there is a next page
+        int skip = (page - 1) * PAGE_SIZE;
+        int wanted = PAGE_SIZE + 1;
+        List<TwitchWhitelisting> results = new ArrayList<>(wanted);
+        List<String> channelNames = new ArrayList<>(wanted);
+        for (TwitchChannel channel : channels) {
+            int before = results.size();
+            skip -= query.collect(channel.getWhitelistingStore(), skip, wanted - results.size(), results);
+            for (int i = before; i < results.size(); i++) {
+                channelNames.add(channel.getConfig().getChannelName());
+            }
+            if (results.size() >= wanted) break;
+        }
+
+        boolean hasMore = results.size() > PAGE_SIZE;
+        int shown = Math.min(results.size(), PAGE_SIZE);
+        List<Component> lines = new ArrayList<>(shown + 2);
+        if (shown == 0) {
+            lines.add(Component.text(page == 1 ? "No whitelistings found" : "No whitelistings on page " + page).style(Style.style(TextColor.color(0xFB5454))));
+            return lines;
+        }
+
+        lines.add(Component.text("Whitelistings for /redemption " + title + ", page " + page).style(Style.style(TextColor.color(0x54FB54))));
+        for (int i = 0; i < shown; i++) {
+            TwitchWhitelisting whitelisting = results.get(i);
+            String date = DATE_FORMAT.format(whitelisting.whitelistDate().toInstant().atZone(ZoneId.systemDefault()));
+            String line = whitelisting.twitchUsername() + " -> " + whitelisting.minecraftUsername() + " (" + (whitelisting.isJava() ? "Java" : "Bedrock") + ", " + date + ")";
+            if (channels.size() > 1) line += " [" + channelNames.get(i) + "]";
+            lines.add(Component.text(line).style(Style.style(TextColor.color(0x54FB54))));
+        }
+        if (hasMore) {
+            lines.add(Component.text("Next page: /redemption " + title + " " + (page + 1)).style(Style.style(TextColor.color(0xAAAAAA))));
+        }
+        return lines;
+    }
+
     @Override
     public @NotNull Collection<String> suggest(@NotNull CommandSourceStack commandSourceStack, @NotNull String[] args) {
         Entity executor = commandSourceStack.getExecutor();
@@ -73,27 +244,49 @@ public class RedemptionCommand implements BasicCommand {
             return List.of();
         }
 
-        List<String> suggestions = new ArrayList<>();
-
-        executor.getServer().getLogger().info("args: " + args.length);
+        List<String> suggestions;
 
         if (args.length <= 1) {
-            for (TwitchWhitelisting whitelisting : whitelistingStore.getWhitelistings()) {
-                if (args.length == 0) {
-                    suggestions.add(whitelisting.twitchUsername());
-                } else {
-                    if (whitelisting.twitchUsername().startsWith(args[0])) {
-                        suggestions.add(whitelisting.twitchUsername());
-                    }
+            String prefix = args.length == 0 ? "" : args[0];
+            int limit = Math.max(1, maxSuggestions.getAsInt());
+            suggestions = new ArrayList<>(Math.min(limit, 16));
+
+            for (String query : QUERIES) {
+                if (suggestions.size() < limit && query.startsWith(prefix)) {
+                    suggestions.add(query);
+                }
+            }
+            for (TwitchChannel channel : channels) {
+                int remaining = limit - suggestions.size();
+                if (remaining <= 0) break;
+                channel.getWhitelistingStore().completeTwitchUsername(prefix, remaining, suggestions);
+            }
+            for (TwitchChannel channel : channels) {
+                int remaining = limit - suggestions.size();
+                if (remaining <= 0) break;
+                channel.getWhitelistingStore().completeMinecraftUsername(prefix, remaining, suggestions);
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("edition")) {
+            suggestions = new ArrayList<>(4);
+            for (String option : EDITIONS) {
+                if (option.startsWith(args[1])) {
+                    suggestions.add(option);
+                }
+            }
+            for (String option : ACTIONS) {
+                if (option.startsWith(args[1])) {
+                    suggestions.add(option);
                 }
             }
         } else if (args.length == 2) {
-            List<String> options = List.of("show", "remove");
-            for (String option : options) {
+            suggestions = new ArrayList<>(2);
+            for (String option : ACTIONS) {
                 if (option.startsWith(args[1])) {
                     suggestions.add(option);
                 }
             }
+        } else {
+            suggestions = List.of();
         }
 
         return suggestions;
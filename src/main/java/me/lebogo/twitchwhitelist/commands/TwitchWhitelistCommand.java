@@ -0,0 +1,103 @@
+package me.lebogo.twitchwhitelist.commands;
+
+import io.papermc.paper.command.brigadier.BasicCommand;
+import io.papermc.paper.command.brigadier.CommandSourceStack;
+import me.lebogo.twitchwhitelist.ConfigReloader;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+import me.lebogo.twitchwhitelist.TwitchWhitelist;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextColor;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+
+public class TwitchWhitelistCommand implements BasicCommand {
+
+    private final TwitchWhitelist plugin;
+    private final ConfigReloader configReloader;
+
+    public TwitchWhitelistCommand(TwitchWhitelist plugin, ConfigReloader configReloader) {
+        this.plugin = plugin;
+        this.configReloader = configReloader;
+    }
+
+    @Override
+    public void execute(CommandSourceStack commandSourceStack, String[] args) {
+        CommandSender sender = commandSourceStack.getSender();
+
+        // check permissions
+        if (!sender.hasPermission("twitchwhitelist.admin")) {
+            sender.sendMessage(Component.text("You do not have permission to use this command").style(Style.style(TextColor.color(0xFB5454))));
+            return;
+        }
+
+        if (args.length < 1) {
+            sender.sendMessage("Usage: /twitchwhitelist <reload|stats|export>");
+            return;
+        }
+
+        String action = args[0];
+
+        if (action.equalsIgnoreCase("reload")) {
+            sender.sendMessage(Component.text("Reloading configuration...").style(Style.style(TextColor.color(0x54FB54))));
+            // reward updates call Helix, keep them off the main thread
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                for (String line : configReloader.reload()) {
+                    sender.sendMessage(Component.text(line).style(Style.style(TextColor.color(0x54FB54))));
+                }
+            });
+        } else if (action.equalsIgnoreCase("stats")) {
+            List<String> lines = new ArrayList<>(plugin.getMetrics().summary());
+            int queued = 0;
+            for (TwitchChannel channel : plugin.getChannels()) {
+                if (channel.getRedemptionPipeline() != null) queued += channel.getRedemptionPipeline().getQueueSize();
+            }
+            lines.add("Queued: " + queued + " redemption(s), " + plugin.getCommandDispatcher().getQueueSize() + " command(s), " + plugin.getChatResponseSender().getQueueSize() + " chat message(s)");
+            lines.add("Chat: " + plugin.getChatResponseSender().getSentCount() + " sent, " + plugin.getChatResponseSender().getMergedCount() + " merged, " + plugin.getChatResponseSender().getDroppedCount() + " dropped");
+            if (plugin.getStartupTimer() != null) lines.add(plugin.getStartupTimer().toString());
+            for (String line : lines) {
+                sender.sendMessage(Component.text(line).style(Style.style(TextColor.color(0x54FB54))));
+            }
+        } else if (action.equalsIgnoreCase("export")) {
+            sender.sendMessage(Component.text("Exporting whitelistings...").style(Style.style(TextColor.color(0x54FB54))));
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                for (TwitchChannel channel : plugin.getChannels()) {
+                    try {
+                        Path exported = channel.getWhitelistingStore().exportYaml();
+                        sender.sendMessage(Component.text("Exported " + channel.getConfig().getChannelName() + " to " + exported.getFileName()).style(Style.style(TextColor.color(0x54FB54))));
+                    } catch (Exception e) {
+                        plugin.getLogger().log(Level.SEVERE, "Failed to export the whitelistings of " + channel.getConfig().getChannelName(), e);
+                        sender.sendMessage(Component.text("Failed to export " + channel.getConfig().getChannelName() + ": " + e.getMessage()).style(Style.style(TextColor.color(0xFB5454))));
+                    }
+                }
+            });
+        } else {
+            sender.sendMessage(Component.text("Invalid action: " + action).style(Style.style(TextColor.color(0xFB5454))));
+        }
+    }
+
+    @Override
+    public @NotNull Collection<String> suggest(@NotNull CommandSourceStack commandSourceStack, @NotNull String[] args) {
+        if (!commandSourceStack.getSender().hasPermission("twitchwhitelist.admin")) {
+            return List.of();
+        }
+
+        List<String> suggestions = new ArrayList<>();
+
+        if (args.length <= 1) {
+            for (String option : List.of("reload", "stats", "export")) {
+                if (args.length == 0 || option.startsWith(args[0])) {
+                    suggestions.add(option);
+                }
+            }
+        }
+
+        return suggestions;
+    }
+}
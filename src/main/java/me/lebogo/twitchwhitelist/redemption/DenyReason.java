@@ -0,0 +1,25 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import me.lebogo.twitchwhitelist.MessageTemplate;
+
+/**
+ * Reasons a redemption is canceled, together with the chat reply sent to the viewer.
+ */
+public enum DenyReason {
+    ALREADY_REDEEMED("You have already redeemed a whitelisting."),
+    NO_USERNAME("Please enter a username."),
+    WHITELISTED("You are already whitelisted."),
+    BANNED("You are banned from the server."),
+    UNKNOWN_USERNAME("The username \"{username}\" does not exist."),
+    COMMAND_FAILED("Something went wrong while whitelisting you, your points have been refunded.");
+
+    private final MessageTemplate message;
+
+    DenyReason(String message) {
+        this.message = MessageTemplate.compile(message);
+    }
+
+    public MessageTemplate getMessage() {
+        return message;
+    }
+}
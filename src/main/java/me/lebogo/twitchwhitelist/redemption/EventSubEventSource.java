@@ -0,0 +1,114 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import com.github.philippheuer.credentialmanager.domain.OAuth2Credential;
+import com.github.twitch4j.client.websocket.domain.WebsocketConnectionState;
+import com.github.twitch4j.eventsub.condition.CustomRewardRedemptionAddCondition;
+import com.github.twitch4j.eventsub.domain.RedemptionStatus;
+import com.github.twitch4j.eventsub.events.CustomRewardRedemptionAddEvent;
+import com.github.twitch4j.eventsub.socket.IEventSubSocket;
+import com.github.twitch4j.eventsub.socket.TwitchEventSocket;
+import com.github.twitch4j.eventsub.socket.events.EventSocketConnectionStateEvent;
+import com.github.twitch4j.eventsub.socket.events.EventSocketSubscriptionSuccessEvent;
+import com.github.twitch4j.eventsub.subscriptions.SubscriptionTypes;
+import com.github.twitch4j.helix.TwitchHelix;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives redemptions through an EventSub WebSocket. The socket reconnects and recreates the subscriptions on its own,
+ * once a channel is subscribed again the redemptions made in the meantime are fetched from Helix.
+ */
+public class EventSubEventSource implements RedemptionEventSource {
+    private final IEventSubSocket eventSocket;
+    private final RedemptionRouter router;
+    private final UnfulfilledRedemptionPoller poller;
+    private final Logger logger;
+    private final Set<String> subscribedChannelIds = ConcurrentHashMap.newKeySet();
+    /**
+     * Channels that still have to catch up after a disconnect, with the time the connection was lost
+     */
+    private final Map<String, Instant> pendingCatchUps = new ConcurrentHashMap<>();
+
+    /**
+     * @param url    WebSocket URL of the EventSub server
+     * @param helix  Helix client used for the subscriptions and the catch-up
+     * @param router Router the redemptions are handed to
+     */
+    public EventSubEventSource(String url, TwitchHelix helix, RedemptionRouter router, Logger logger) {
+        this.router = router;
+        this.logger = logger;
+        this.poller = new UnfulfilledRedemptionPoller(helix, router, logger);
+        this.eventSocket = TwitchEventSocket.builder().baseUrl(url).helix(helix).build();
+
+        eventSocket.getEventManager().onEvent(CustomRewardRedemptionAddEvent.class, this::onRedemption);
+        eventSocket.getEventManager().onEvent(EventSocketConnectionStateEvent.class, this::onConnectionState);
+        eventSocket.getEventManager().onEvent(EventSocketSubscriptionSuccessEvent.class, this::onSubscriptionSuccess);
+    }
+
+    private void onRedemption(CustomRewardRedemptionAddEvent event) {
+        if (event.getStatus() != RedemptionStatus.UNFULFILLED) {
+            return;
+        }
+
+        router.route(event.getBroadcasterUserId(), event.getReward().getId(), event.getId(), event.getRedeemedAt(), isJava -> Redemption.of(event, isJava));
+    }
+
+    private void onConnectionState(EventSocketConnectionStateEvent event) {
+        if (event.getState() == WebsocketConnectionState.CONNECTED || event.getPreviousState() != WebsocketConnectionState.CONNECTED) {
+            return;
+        }
+
+        logger.log(Level.WARNING, "EventSub connection lost (" + event.getState() + "), redemptions will be caught up after reconnecting.");
+        Instant now = Instant.now();
+        for (String channelId : subscribedChannelIds) {
+            pendingCatchUps.putIfAbsent(channelId, now);
+        }
+    }
+
+    private void onSubscriptionSuccess(EventSocketSubscriptionSuccessEvent event) {
+        if (!(event.getSubscription().getCondition() instanceof CustomRewardRedemptionAddCondition condition)) {
+            return;
+        }
+
+        String channelId = condition.getBroadcasterUserId();
+        Instant disconnectedAt = pendingCatchUps.remove(channelId);
+        if (disconnectedAt == null) {
+            return;
+        }
+
+        // the last seen redemption may be older than the disconnect, start from there to be safe
+        Instant lastSeen = router.getLastSeen(channelId);
+        Instant since = lastSeen != null && lastSeen.isBefore(disconnectedAt) ? lastSeen : disconnectedAt;
+        for (TwitchChannel channel : router.getChannels()) {
+            if (!channel.getChannelId().equals(channelId)) continue;
+
+            Thread.ofVirtual().name("TwitchWhitelist-CatchUp-" + channel.getKey()).start(() -> {
+                int queued = poller.poll(channel, since);
+                logger.log(Level.INFO, "Caught up " + queued + " redemption(s) of " + channel.getConfig().getChannelName() + " after reconnecting.");
+            });
+        }
+    }
+
+    @Override
+    public void subscribe(TwitchChannel channel) {
+        OAuth2Credential credential = new OAuth2Credential("twitch", channel.getConfig().getAccessToken());
+        eventSocket.register(credential, SubscriptionTypes.CHANNEL_POINTS_CUSTOM_REWARD_REDEMPTION_ADD.prepareSubscription(
+                builder -> builder.broadcasterUserId(channel.getChannelId()).build(), null));
+        subscribedChannelIds.add(channel.getChannelId());
+    }
+
+    @Override
+    public void close() {
+        try {
+            eventSocket.close();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to close the EventSub connection", e);
+        }
+    }
+}
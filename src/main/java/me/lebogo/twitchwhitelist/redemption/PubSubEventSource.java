@@ -0,0 +1,40 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import com.github.philippheuer.credentialmanager.domain.OAuth2Credential;
+import com.github.twitch4j.pubsub.TwitchPubSub;
+import com.github.twitch4j.pubsub.domain.ChannelPointsRedemption;
+import com.github.twitch4j.pubsub.events.ChannelPointsRedemptionEvent;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+
+import java.util.Objects;
+
+/**
+ * Receives redemptions through the legacy PubSub transport. Redemptions made while PubSub is disconnected are not replayed.
+ */
+public class PubSubEventSource implements RedemptionEventSource {
+    private final TwitchPubSub pubSub;
+
+    public PubSubEventSource(TwitchPubSub pubSub, RedemptionRouter router) {
+        this.pubSub = pubSub;
+
+        pubSub.getEventManager().onEvent(ChannelPointsRedemptionEvent.class, event -> {
+            ChannelPointsRedemption redemption = event.getRedemption();
+            if (!Objects.equals(redemption.getStatus(), "UNFULFILLED")) {
+                return;
+            }
+
+            router.route(redemption.getChannelId(), redemption.getReward().getId(), redemption.getId(), event.getTime(), isJava -> Redemption.of(redemption, isJava));
+        });
+    }
+
+    @Override
+    public void subscribe(TwitchChannel channel) {
+        // all channels share the one PubSub connection, it takes up to 50 topics
+        pubSub.listenForChannelPointsRedemptionEvents(new OAuth2Credential("twitch", channel.getConfig().getAccessToken()), channel.getChannelId());
+    }
+
+    @Override
+    public void close() {
+        pubSub.disconnect();
+    }
+}
@@ -0,0 +1,32 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import com.github.twitch4j.eventsub.events.ChannelPointsCustomRewardRedemptionEvent;
+import com.github.twitch4j.helix.domain.CustomRewardRedemption;
+import com.github.twitch4j.pubsub.domain.ChannelPointsRedemption;
+
+/**
+ * Transport independent view of a channel points redemption for one of our rewards.
+ *
+ * @param id             Redemption ID
+ * @param rewardId       ID of the redeemed reward
+ * @param rewardTitle    Title of the redeemed reward
+ * @param twitchUsername Login of the redeeming user
+ * @param displayName    Display name of the redeeming user
+ * @param userInput      Minecraft username the user entered, may be null
+ * @param isJava         true for the Java Edition reward, false for the Bedrock Edition reward
+ */
+public record Redemption(String id, String rewardId, String rewardTitle, String twitchUsername, String displayName,
+                         String userInput, boolean isJava) {
+
+    public static Redemption of(ChannelPointsRedemption redemption, boolean isJava) {
+        return new Redemption(redemption.getId(), redemption.getReward().getId(), redemption.getReward().getTitle(), redemption.getUser().getLogin(), redemption.getUser().getDisplayName(), redemption.getUserInput(), isJava);
+    }
+
+    public static Redemption of(ChannelPointsCustomRewardRedemptionEvent event, boolean isJava) {
+        return new Redemption(event.getId(), event.getReward().getId(), event.getReward().getTitle(), event.getUserLogin(), event.getUserName(), event.getUserInput(), isJava);
+    }
+
+    public static Redemption of(CustomRewardRedemption redemption, boolean isJava) {
+        return new Redemption(redemption.getRedemptionId(), redemption.getReward().getId(), redemption.getReward().getTitle(), redemption.getUserLogin(), redemption.getUserName(), redemption.getUserInput(), isJava);
+    }
+}
@@ -0,0 +1,18 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import me.lebogo.twitchwhitelist.TwitchChannel;
+
+/**
+ * Transport that delivers channel points redemptions from Twitch to a {@link RedemptionRouter}
+ */
+public interface RedemptionEventSource {
+    /**
+     * Starts listening for redemptions of a channel
+     */
+    void subscribe(TwitchChannel channel);
+
+    /**
+     * Stops listening for redemptions of all channels
+     */
+    void close();
+}
@@ -0,0 +1,273 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import me.lebogo.twitchwhitelist.WhitelistingJournal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Durable log of every redemption's progress, keyed by redemption ID. A redemption is only ever started once,
+ * and redemptions that were in progress when the server stopped can be resumed from their last state.
+ * <p>
+ * Every transition is one line:
+ * <pre>
+ * epochMillis	redemptionId	RECEIVED	channelKey	rewardId	rewardTitle	twitchUsername	displayName	userInput	J|B
+ * epochMillis	redemptionId	STATE
+ * </pre>
+ * Lines are written by a single thread that syncs them to disk in groups, so concurrent transitions share one fsync.
+ */
+public class RedemptionLedger {
+    /**
+     * Finished redemptions are kept this long to recognise replayed events
+     */
+    private static final long RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    public enum State {
+        RECEIVED,
+        /**
+         * The viewer is reserved in the whitelisting store, a claim found there on resume belongs to this redemption
+         */
+        CLAIMED,
+        VALIDATED,
+        /**
+         * The whitelist command was queued but may not have run yet
+         */
+        COMMAND_DISPATCHING,
+        /**
+         * The whitelist command ran successfully
+         */
+        COMMAND_DISPATCHED,
+        FULFILLED,
+        DENIED,
+        PERSISTED;
+
+        /**
+         * @return true if nothing is left to do for a redemption in this state
+         */
+        public boolean isFinal() {
+            return this == DENIED || this == PERSISTED;
+        }
+    }
+
+    /**
+     * @param channelKey Key of the channel the redemption belongs to
+     * @param redemption The redemption
+     * @param state      Last recorded state
+     * @param updatedAt  Time of the last transition
+     */
+    public record Entry(String channelKey, Redemption redemption, State state, long updatedAt) {
+    }
+
+    private record PendingLine(String line, CompletableFuture<Void> written) {
+    }
+
+    /**
+     * Marker that tells the writer thread to stop after the lines queued before it
+     */
+    private static final PendingLine CLOSE = new PendingLine("", new CompletableFuture<>());
+
+    private final Path path;
+    private final Logger logger;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingLine> pending = new LinkedBlockingQueue<>();
+    private FileChannel channel;
+    private Thread writer;
+
+    public RedemptionLedger(Path path, Logger logger) {
+        this.path = path;
+        this.logger = logger;
+    }
+
+    /**
+     * Loads the ledger, drops old finished redemptions and starts the writer thread
+     */
+    public void open() throws IOException {
+        load();
+        rewrite();
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = Thread.ofPlatform().name("TwitchWhitelist-Ledger").daemon(true).start(this::write);
+    }
+
+    /**
+     * Records a newly received redemption
+     *
+     * @return false if the redemption was received before, it must not be processed again
+     */
+    public boolean receive(String channelKey, Redemption redemption) {
+        Entry entry = new Entry(channelKey, redemption, State.RECEIVED, System.currentTimeMillis());
+        if (entries.putIfAbsent(redemption.id(), entry) != null) return false;
+
+        append(format(entry));
+        return true;
+    }
+
+    /**
+     * Records a state transition and waits until it is on disk
+     */
+    public void record(Redemption redemption, State state) {
+        long now = System.currentTimeMillis();
+        entries.computeIfPresent(redemption.id(), (id, entry) -> new Entry(entry.channelKey(), entry.redemption(), state, now));
+        append(now + "\t" + WhitelistingJournal.escape(redemption.id()) + "\t" + state);
+    }
+
+    /**
+     * Gets the state of a redemption in constant time
+     *
+     * @return The last recorded state or null if the redemption is unknown
+     */
+    public State getState(String redemptionId) {
+        Entry entry = entries.get(redemptionId);
+        return entry == null ? null : entry.state();
+    }
+
+    /**
+     * Gets the redemptions of a channel that were not finished
+     */
+    public List<Entry> getUnfinished(String channelKey) {
+        List<Entry> unfinished = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.state().isFinal() && entry.channelKey().equals(channelKey)) unfinished.add(entry);
+        }
+        unfinished.sort((a, b) -> Long.compare(a.updatedAt(), b.updatedAt()));
+        return unfinished;
+    }
+
+    private void append(String line) {
+        if (writer == null) return;
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        pending.add(new PendingLine(line + "\n", written));
+        try {
+            written.join();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Failed to write redemption ledger", e);
+        }
+    }
+
+    private void write() {
+        List<PendingLine> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch);
+
+            boolean closing = false;
+            try {
+                StringBuilder builder = new StringBuilder();
+                for (PendingLine line : batch) {
+                    if (line == CLOSE) closing = true;
+                    else builder.append(line.line());
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(false);
+
+                for (PendingLine line : batch) line.written().complete(null);
+            } catch (IOException e) {
+                for (PendingLine line : batch) line.written().completeExceptionally(e);
+            }
+            batch.clear();
+
+            if (closing) return;
+        }
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(path)) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                // a torn last line from a crash mid-write is skipped
+                if (fields.length != 3 && fields.length != 10) continue;
+
+                long updatedAt;
+                State state;
+                try {
+                    updatedAt = Long.parseLong(fields[0]);
+                    state = State.valueOf(fields[2]);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                String id = WhitelistingJournal.unescape(fields[1]);
+
+                if (fields.length == 10) {
+                    String userInput = WhitelistingJournal.unescape(fields[8]);
+                    Redemption redemption = new Redemption(id, WhitelistingJournal.unescape(fields[4]), WhitelistingJournal.unescape(fields[5]),
+                            WhitelistingJournal.unescape(fields[6]), WhitelistingJournal.unescape(fields[7]), userInput.isEmpty() ? null : userInput, "J".equals(fields[9]));
+                    entries.put(id, new Entry(WhitelistingJournal.unescape(fields[3]), redemption, state, updatedAt));
+                } else {
+                    entries.computeIfPresent(id, (key, entry) -> new Entry(entry.channelKey(), entry.redemption(), state, updatedAt));
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the ledger with one line per redemption, leaving out finished redemptions past the retention
+     */
+    private void rewrite() throws IOException {
+        long cutoff = System.currentTimeMillis() - RETENTION_MILLIS;
+        entries.values().removeIf(entry -> entry.state().isFinal() && entry.updatedAt() < cutoff);
+
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                out.write(format(entry));
+                out.write('\n');
+            }
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String format(Entry entry) {
+        Redemption redemption = entry.redemption();
+        return entry.updatedAt() + "\t" + WhitelistingJournal.escape(redemption.id()) + "\t" + entry.state()
+                + "\t" + WhitelistingJournal.escape(entry.channelKey())
+                + "\t" + WhitelistingJournal.escape(redemption.rewardId())
+                + "\t" + WhitelistingJournal.escape(redemption.rewardTitle())
+                + "\t" + WhitelistingJournal.escape(redemption.twitchUsername())
+                + "\t" + WhitelistingJournal.escape(redemption.displayName())
+                + "\t" + WhitelistingJournal.escape(redemption.userInput())
+                + "\t" + (redemption.isJava() ? 'J' : 'B');
+    }
+
+    /**
+     * Writes the remaining transitions and closes the ledger file
+     */
+    public void close() {
+        if (writer == null) return;
+
+        pending.add(CLOSE);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to close the redemption ledger at " + path, e);
+        }
+        writer = null;
+    }
+}
@@ -0,0 +1,400 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import com.github.twitch4j.eventsub.domain.RedemptionStatus;
+import me.lebogo.twitchwhitelist.ChannelConfig;
+import me.lebogo.twitchwhitelist.MessageTemplate;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+import me.lebogo.twitchwhitelist.TwitchWhitelist;
+import me.lebogo.twitchwhitelist.TwitchWhitelistConfig;
+import me.lebogo.twitchwhitelist.TwitchWhitelisting;
+import me.lebogo.twitchwhitelist.WhitelistingExpiry;
+import me.lebogo.twitchwhitelist.WhitelistingStore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processes redemptions off the PubSub event thread.
+ * Redemptions are buffered in a bounded queue and handled by a fixed number of virtual worker threads,
+ * each running validation, the external checks and the whitelist command in order.
+ * A worker does not wait for the batched status update on Twitch, the rest of the redemption continues once it was answered.
+ * Every step is recorded in the {@link RedemptionLedger}, so a redemption is never processed twice
+ * and one that was interrupted by a restart continues where it stopped.
+ */
+public class RedemptionPipeline {
+    private static final long SUBMIT_TIMEOUT_MILLIS = 5000;
+    private static final long RESERVATION_RETRY_MILLIS = 50;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final TwitchWhitelist plugin;
+    private final TwitchChannel channel;
+    private final Logger logger;
+    private final BlockingQueue<Redemption> queue;
+    private final RedemptionStatusBatcher statusBatcher;
+    private final RedemptionLedger ledger;
+    private final RedemptionValidator validator;
+    /**
+     * IDs of unfinished redemptions from the ledger that may be processed again
+     */
+    private final Set<String> resuming = ConcurrentHashMap.newKeySet();
+    private final List<Thread> workers;
+    /**
+     * Runs what is left of a redemption once its status update was answered
+     */
+    private final ExecutorService continuations = Executors.newVirtualThreadPerTaskExecutor();
+    private final int concurrency;
+    private volatile boolean running;
+
+    public RedemptionPipeline(TwitchWhitelist plugin, TwitchChannel channel, int concurrency, int queueSize) {
+        this.plugin = plugin;
+        this.channel = channel;
+        this.logger = plugin.getLogger();
+        this.ledger = plugin.getRedemptionLedger();
+        this.validator = new RedemptionValidator(plugin.getPlayerAccessIndex(), plugin::getMojangProfileResolver, plugin.getMetrics().getMojangLookup());
+        this.concurrency = Math.max(1, concurrency);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.workers = new ArrayList<>(this.concurrency);
+
+        TwitchWhitelistConfig config = plugin.getTwitchWhitelistConfig();
+        this.statusBatcher = new RedemptionStatusBatcher(plugin, channel, config.getRedemptionStatusBatchWindow(), config.getRedemptionStatusBatchSize());
+    }
+
+    public void start() {
+        running = true;
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(Thread.ofVirtual().name("TwitchWhitelist-Redemption-" + channel.getKey() + "-" + i).start(this::work));
+        }
+    }
+
+    /**
+     * Queues a redemption for processing. If the queue is full the caller is held back for a short while,
+     * after that the redemption is left unfulfilled on Twitch.
+     *
+     * @param redemption Redemption to process
+     * @return true if the redemption was queued
+     */
+    public boolean submit(Redemption redemption) {
+        if (!running) return false;
+
+        try {
+            if (queue.offer(redemption, SUBMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        logger.log(Level.WARNING, "Redemption queue is full, leaving redemption " + redemption.id() + " of " + redemption.twitchUsername() + " unfulfilled.");
+        return false;
+    }
+
+    /**
+     * Queues redemptions that were not finished before the last shutdown
+     *
+     * @param entries Unfinished ledger entries of this channel
+     */
+    public void resume(List<RedemptionLedger.Entry> entries) {
+        if (entries.isEmpty()) return;
+
+        logger.log(Level.INFO, "Resuming " + entries.size() + " unfinished redemption(s) of channel " + channel.getKey() + ".");
+        for (RedemptionLedger.Entry entry : entries) {
+            resuming.add(entry.redemption().id());
+            if (!submit(entry.redemption())) resuming.remove(entry.redemption().id());
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void work() {
+        while (running) {
+            Redemption redemption;
+            try {
+                redemption = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (redemption == null) continue;
+
+            try {
+                process(redemption).whenComplete((ignored, throwable) -> {
+                    if (throwable != null) logger.log(Level.SEVERE, "Failed to process redemption " + redemption.id(), throwable);
+                });
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Failed to process redemption " + redemption.id(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs a redemption up to its status update on this worker, the rest continues once Twitch answered
+     *
+     * @return Future completing once the redemption is finished or left for the next start
+     */
+    private CompletableFuture<Void> process(Redemption redemption) {
+        if (!ledger.receive(channel.getKey(), redemption) && !resuming.remove(redemption.id())) {
+            // replayed or duplicated event
+            return DONE;
+        }
+
+        logger.log(Level.INFO, "Redemption event: " + redemption.rewardTitle());
+        plugin.getMetrics().recordReceived();
+
+        // use one configuration snapshot and one context for the whole redemption, it may finish on another thread
+        ChannelConfig config = channel.getConfig();
+        MessageTemplate.Context context = new MessageTemplate.Context()
+                .username(redemption.userInput())
+                .twitch(redemption.twitchUsername())
+                .display(redemption.displayName())
+                .isJava(redemption.isJava())
+                .cost(config.getRewardCost());
+
+        RedemptionLedger.State state = ledger.getState(redemption.id());
+        if (state == RedemptionLedger.State.COMMAND_DISPATCHING) {
+            // the command may not have run before the restart, whitelisting a player twice does no harm
+            logger.log(Level.WARNING, "Running the whitelist command of redemption " + redemption.id() + " again, it was interrupted while dispatching.");
+            return fulfil(redemption, config, context, newWhitelisting(redemption));
+        }
+        if (state == RedemptionLedger.State.COMMAND_DISPATCHED || state == RedemptionLedger.State.FULFILLED) {
+            // the whitelist command has run, do not run it twice
+            logger.log(Level.WARNING, "Finishing redemption " + redemption.id() + " that was interrupted after its whitelist command.");
+            return finishFulfilment(redemption, config, context, newWhitelisting(redemption), state == RedemptionLedger.State.COMMAND_DISPATCHED);
+        }
+
+        WhitelistingStore whitelistingStore = channel.getWhitelistingStore();
+        // a claim this redemption left in the store before a crash would look like the viewer already redeemed
+        boolean resumedClaim = state == RedemptionLedger.State.CLAIMED || state == RedemptionLedger.State.VALIDATED;
+        if (!resumedClaim) {
+            DenyReason reason = validator.validate(whitelistingStore, redemption);
+            if (reason != null) {
+                return deny(redemption, config, reason, context);
+            }
+        }
+
+        // hold the viewer until this redemption is stored, so a second one of the same viewer can not pass as well
+        TwitchWhitelisting whitelisting = newWhitelisting(redemption);
+        WhitelistingStore.Reservation reservation = reserve(whitelistingStore, whitelisting, resumedClaim);
+        while (reservation == WhitelistingStore.Reservation.BUSY) {
+            // another worker is handling a redemption of the same viewer, it may still be refunded, so wait for its outcome
+            if (!running) return DONE;
+            try {
+                Thread.sleep(RESERVATION_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return DONE;
+            }
+            reservation = reserve(whitelistingStore, whitelisting, resumedClaim);
+        }
+
+        if (reservation == WhitelistingStore.Reservation.REDEEMED) {
+            return deny(redemption, config, DenyReason.ALREADY_REDEEMED, context);
+        }
+        if (reservation == WhitelistingStore.Reservation.FAILED) {
+            logger.log(Level.WARNING, "Could not reserve " + redemption.twitchUsername() + " in the whitelisting store, leaving redemption " + redemption.id() + " unfulfilled.");
+            return DONE;
+        }
+
+        if (!resumedClaim) ledger.record(redemption, RedemptionLedger.State.CLAIMED);
+
+        CompletableFuture<Void> outcome;
+        try {
+            outcome = checkAndFulfil(redemption, config, context, whitelisting, resumedClaim);
+        } catch (RuntimeException e) {
+            release(whitelistingStore, redemption, whitelisting);
+            throw e;
+        }
+        // the reservation is held until the whitelisting is stored or the redemption is refunded
+        return outcome.whenComplete((ignored, throwable) -> release(whitelistingStore, redemption, whitelisting));
+    }
+
+    private CompletableFuture<Void> checkAndFulfil(Redemption redemption, ChannelConfig config, MessageTemplate.Context context, TwitchWhitelisting whitelisting, boolean resumedClaim) {
+        DenyReason reason;
+        if (resumedClaim) {
+            // validated only now that the store no longer counts the claim as a whitelisting
+            reason = validator.validate(channel.getWhitelistingStore(), redemption);
+            if (reason != null) {
+                return deny(redemption, config, reason, context);
+            }
+        }
+
+        try {
+            reason = validator.checkExternal(redemption, config, context);
+        } catch (CompletionException e) {
+            // do not refund viewers because Mojang is unreachable, the streamer can still handle it manually
+            logger.log(Level.WARNING, "Could not verify username \"" + redemption.userInput() + "\", leaving redemption " + redemption.id() + " unfulfilled: " + e.getCause());
+            return DONE;
+        }
+
+        if (reason != null) {
+            return deny(redemption, config, reason, context);
+        }
+
+        ledger.record(redemption, RedemptionLedger.State.VALIDATED);
+        return fulfil(redemption, config, context, whitelisting);
+    }
+
+    // ----------------- Stages -----------------
+
+    /**
+     * Refunds a redemption. It only becomes final in the ledger once Twitch confirmed the refund,
+     * otherwise it keeps its current state and is resumed on the next start.
+     */
+    private CompletableFuture<Void> deny(Redemption redemption, ChannelConfig config, DenyReason reason, MessageTemplate.Context context) {
+        return updateRedemptionStatus(redemption, RedemptionStatus.CANCELED).thenAccept(updated -> {
+            if (!updated) {
+                logger.log(Level.WARNING, "Could not refund redemption " + redemption.id() + " on Twitch, it is retried on the next start.");
+                return;
+            }
+            ledger.record(redemption, RedemptionLedger.State.DENIED);
+            plugin.getMetrics().recordDenied(reason);
+            sendMessage(redemption, config, reason.getMessage(), context, true);
+        });
+    }
+
+    private CompletableFuture<Void> fulfil(Redemption redemption, ChannelConfig config, MessageTemplate.Context context, TwitchWhitelisting whitelisting) {
+        // run the whitelist command first, so the redemption can still be refunded if it fails
+        String whitelistCommand = (redemption.isJava() ? config.getJavaWhitelistCommand() : config.getBedrockWhitelistCommand()).render(context);
+        ledger.record(redemption, RedemptionLedger.State.COMMAND_DISPATCHING);
+        boolean commandSucceeded;
+        try {
+            commandSucceeded = plugin.getCommandDispatcher().dispatch(whitelistCommand).join();
+        } catch (CompletionException e) {
+            // the server is stopping and the command did not run, this is not a reason to refund
+            logger.log(Level.WARNING, "Could not run the whitelist command of redemption " + redemption.id() + " before shutdown, it is resumed on the next start.");
+            return DONE;
+        }
+        // dispatched commands fire no command event, the index does not notice this one on its own
+        plugin.getPlayerAccessIndex().requestRefresh();
+
+        if (!commandSucceeded) {
+            logger.log(Level.WARNING, "Whitelist command failed, refunding redemption " + redemption.id() + ": " + whitelistCommand);
+            return deny(redemption, config, DenyReason.COMMAND_FAILED, context);
+        }
+        ledger.record(redemption, RedemptionLedger.State.COMMAND_DISPATCHED);
+
+        return finishFulfilment(redemption, config, context, whitelisting, true);
+    }
+
+    private CompletableFuture<Void> finishFulfilment(Redemption redemption, ChannelConfig config, MessageTemplate.Context context, TwitchWhitelisting whitelisting, boolean updateStatus) {
+        CompletableFuture<Boolean> statusUpdate = updateStatus ? updateRedemptionStatus(redemption, RedemptionStatus.FULFILLED) : CompletableFuture.completedFuture(true);
+        return statusUpdate.thenAccept(statusUpdated -> {
+            if (updateStatus && statusUpdated) {
+                ledger.record(redemption, RedemptionLedger.State.FULFILLED);
+            }
+
+            MessageTemplate twitchMessage = redemption.isJava() ? config.getJavaWhitelistSuccessfullMessage() : config.getBedrockWhitelistSuccessfullMessage();
+
+            WhitelistingStore whitelistingStore = channel.getWhitelistingStore();
+            // a resumed redemption may have been stored before the restart
+            if (!whitelistingStore.hasTwitchUsername(redemption.twitchUsername())) {
+                whitelistingStore.addWhitelisting(whitelisting);
+                long start = System.nanoTime();
+                whitelistingStore.save();
+                plugin.getMetrics().getStoreSave().recordSince(start);
+
+                WhitelistingExpiry expiry = plugin.getWhitelistingExpiry();
+                if (expiry != null) expiry.schedule(channel, whitelisting);
+            }
+
+            if (!statusUpdated) {
+                // the player is whitelisted and stored, only the status on Twitch is left for the next start
+                logger.log(Level.WARNING, "Could not mark redemption " + redemption.id() + " as fulfilled on Twitch, it is retried on the next start.");
+                return;
+            }
+            ledger.record(redemption, RedemptionLedger.State.PERSISTED);
+            plugin.getMetrics().recordFulfilled();
+
+            sendMessage(redemption, config, twitchMessage, context, false);
+        });
+    }
+
+    // ----------------- Helpers -----------------
+
+    private static WhitelistingStore.Reservation reserve(WhitelistingStore whitelistingStore, TwitchWhitelisting whitelisting, boolean resumedClaim) {
+        return resumedClaim ? whitelistingStore.reclaim(whitelisting) : whitelistingStore.reserve(whitelisting);
+    }
+
+    /**
+     * Releases the reservation of a redemption. If its claim was dropped before the whitelist command,
+     * the redemption no longer owns a claim and must not take over a stored whitelisting on the next start.
+     */
+    private void release(WhitelistingStore whitelistingStore, Redemption redemption, TwitchWhitelisting whitelisting) {
+        if (!whitelistingStore.release(whitelisting)) return;
+
+        RedemptionLedger.State state = ledger.getState(redemption.id());
+        if (state == RedemptionLedger.State.CLAIMED || state == RedemptionLedger.State.VALIDATED) {
+            ledger.record(redemption, RedemptionLedger.State.RECEIVED);
+        }
+    }
+
+    private static TwitchWhitelisting newWhitelisting(Redemption redemption) {
+        return new TwitchWhitelisting(redemption.twitchUsername(), redemption.userInput(), new Date(), redemption.isJava());
+    }
+
+    /**
+     * Queues the status update on Twitch without waiting for its batch, so the worker can take the next redemption.
+     * The returned future completes on a continuation thread of this pipeline, not on the thread that sent the batch.
+     *
+     * @return Future completing with true if Twitch confirmed the update
+     */
+    private CompletableFuture<Boolean> updateRedemptionStatus(Redemption redemption, RedemptionStatus status) {
+        return statusBatcher.update(redemption.rewardId(), redemption.id(), status).thenApplyAsync(updated -> updated, continuations);
+    }
+
+    private void sendMessage(Redemption redemption, ChannelConfig config, MessageTemplate message, MessageTemplate.Context context, boolean error) {
+        plugin.getChatResponseSender().send(config.getChannelName(), redemption.displayName(), message, context, error);
+    }
+
+    /**
+     * Stops accepting redemptions. Redemptions still in the queue are recorded in the ledger and resumed on the next start.
+     */
+    public void stop() {
+        running = false;
+        List<Redemption> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (remaining.isEmpty()) return;
+
+        logger.log(Level.WARNING, "Deferring " + remaining.size() + " queued redemption(s) of channel " + channel.getKey() + " to the next start.");
+        for (Redemption redemption : remaining) {
+            ledger.receive(channel.getKey(), redemption);
+        }
+    }
+
+    /**
+     * Stops accepting redemptions and waits for the ones in progress to finish.
+     * Workers may be waiting for whitelist commands, so the command dispatcher has to be shut down first.
+     */
+    public void shutdown() {
+        stop();
+
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        workers.clear();
+        statusBatcher.shutdown();
+
+        // let the redemptions whose status update was just sent finish, the store and the ledger are closed next
+        continuations.shutdown();
+        try {
+            continuations.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import me.lebogo.twitchwhitelist.ChannelConfig;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Hands redemptions from any event source to the pipeline of their channel.
+ * Every redemption ID is only routed once, so a redemption that arrives live and again through a catch-up poll
+ * is processed a single time.
+ */
+public class RedemptionRouter {
+    private static final int MAX_REMEMBERED_IDS = 10000;
+
+    private final Map<String, TwitchChannel> channels;
+    private final Map<String, Instant> lastSeen = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> routedIds = new LinkedHashMap<>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_REMEMBERED_IDS;
+        }
+    };
+
+    /**
+     * @param channels Channels by the Twitch user ID of the broadcaster
+     */
+    public RedemptionRouter(Map<String, TwitchChannel> channels) {
+        this.channels = channels;
+    }
+
+    /**
+     * Routes a redemption to the pipeline of its channel if it is for one of the channel's rewards
+     *
+     * @param channelId    Twitch user ID of the broadcaster
+     * @param rewardId     ID of the redeemed reward
+     * @param redemptionId ID of the redemption
+     * @param redeemedAt   Time of the redemption, null if unknown
+     * @param factory      Creates the redemption, gets true for the Java Edition reward
+     * @return true if the redemption was queued
+     */
+    public boolean route(String channelId, String rewardId, String redemptionId, Instant redeemedAt, Function<Boolean, Redemption> factory) {
+        TwitchChannel channel = channels.get(channelId);
+        if (channel == null || channel.getRedemptionPipeline() == null) {
+            return false;
+        }
+
+        ChannelConfig config = channel.getConfig();
+        boolean isJava = rewardId.equals(config.getJavaRewardId());
+        boolean isBedrock = rewardId.equals(config.getBedrockRewardId());
+        if (!isJava && !isBedrock) {
+            // this redemption is not for us. Ignore it.
+            return false;
+        }
+
+        if (redeemedAt != null) {
+            lastSeen.merge(channelId, redeemedAt, (a, b) -> a.isAfter(b) ? a : b);
+        }
+
+        synchronized (routedIds) {
+            if (routedIds.putIfAbsent(redemptionId, Boolean.TRUE) != null) return false;
+        }
+
+        if (channel.getRedemptionPipeline().submit(factory.apply(isJava))) return true;
+
+        // allow a later catch-up to pick it up again
+        synchronized (routedIds) {
+            routedIds.remove(redemptionId);
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a redemption was already queued by an earlier {@link #route} call
+     */
+    public boolean isRouted(String redemptionId) {
+        synchronized (routedIds) {
+            return routedIds.containsKey(redemptionId);
+        }
+    }
+
+    /**
+     * Gets the time of the newest redemption seen for a channel
+     *
+     * @return The time or null if no redemption was seen yet
+     */
+    public Instant getLastSeen(String channelId) {
+        return lastSeen.get(channelId);
+    }
+
+    public Collection<TwitchChannel> getChannels() {
+        return channels.values();
+    }
+}
@@ -0,0 +1,208 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import com.github.twitch4j.eventsub.domain.RedemptionStatus;
+import com.github.twitch4j.helix.domain.CustomRewardRedemption;
+import com.github.twitch4j.helix.domain.CustomRewardRedemptionList;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+import me.lebogo.twitchwhitelist.TwitchWhitelist;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects redemption status updates per reward and status and sends them to Helix in as few calls as possible.
+ * A batch is flushed once it reaches the batch size or when the batch window has passed since its first update.
+ * Redemptions that were not updated by a call are retried with a backoff.
+ * Every call is sent from its own virtual thread, the scheduler only runs the window and backoff timers.
+ */
+public class RedemptionStatusBatcher {
+    /**
+     * Helix accepts at most 50 redemption IDs per call
+     */
+    private static final int HELIX_MAX_IDS = 50;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+
+    private final TwitchWhitelist plugin;
+    private final TwitchChannel channel;
+    private final Logger logger;
+    private final long windowMillis;
+    private final int batchSize;
+    private final Map<BatchKey, List<PendingUpdate>> pending = new HashMap<>();
+    /**
+     * Window timers of the pending batches, guarded by the lock on {@link #pending}
+     */
+    private final Map<BatchKey, ScheduledFuture<?>> timers = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService senders;
+
+    private record BatchKey(String rewardId, RedemptionStatus status) {
+    }
+
+    private record PendingUpdate(String redemptionId, CompletableFuture<Boolean> result) {
+    }
+
+    public RedemptionStatusBatcher(TwitchWhitelist plugin, TwitchChannel channel, long windowMillis, int batchSize) {
+        this.plugin = plugin;
+        this.channel = channel;
+        this.logger = plugin.getLogger();
+        this.windowMillis = Math.max(0, windowMillis);
+        this.batchSize = Math.min(HELIX_MAX_IDS, Math.max(1, batchSize));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TwitchWhitelist-StatusBatcher-" + channel.getKey());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.senders = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("TwitchWhitelist-StatusSender-" + channel.getKey() + "-", 0).factory());
+    }
+
+    /**
+     * Queues a status update for a redemption
+     *
+     * @param rewardId     ID of the redeemed reward
+     * @param redemptionId ID of the redemption
+     * @param status       New status
+     * @return Future completing with true once Helix confirmed the update, false if it failed after all retries
+     */
+    public CompletableFuture<Boolean> update(String rewardId, String redemptionId, RedemptionStatus status) {
+        BatchKey key = new BatchKey(rewardId, status);
+        PendingUpdate update = new PendingUpdate(redemptionId, new CompletableFuture<>());
+
+        List<PendingUpdate> full = null;
+        synchronized (pending) {
+            List<PendingUpdate> batch = pending.computeIfAbsent(key, k -> new ArrayList<>(batchSize));
+            batch.add(update);
+
+            if (batch.size() >= batchSize) {
+                full = pending.remove(key);
+                ScheduledFuture<?> timer = timers.remove(key);
+                if (timer != null) timer.cancel(false);
+            } else if (batch.size() == 1) {
+                timers.put(key, scheduler.schedule(() -> flush(key, batch), windowMillis, TimeUnit.MILLISECONDS));
+            }
+        }
+
+        if (full != null) {
+            sendAsync(key, full, 1);
+        }
+
+        return update.result();
+    }
+
+    /**
+     * Sends a batch once its window has passed, unless it was already sent because it was full
+     */
+    private void flush(BatchKey key, List<PendingUpdate> batch) {
+        synchronized (pending) {
+            // a timer that could not be cancelled in time must not flush the next batch early
+            if (pending.get(key) != batch) return;
+            pending.remove(key);
+            timers.remove(key);
+        }
+        sendAsync(key, batch, 1);
+    }
+
+    /**
+     * Hands a batch to a virtual thread, so a slow call does not hold up the timers of other batches
+     */
+    private void sendAsync(BatchKey key, List<PendingUpdate> batch, int attempt) {
+        try {
+            senders.execute(() -> send(key, batch, attempt));
+        } catch (RejectedExecutionException e) {
+            // the batcher is shut down
+            for (PendingUpdate update : batch) update.result().complete(false);
+        }
+    }
+
+    private void send(BatchKey key, List<PendingUpdate> batch, int attempt) {
+        List<PendingUpdate> failed = new ArrayList<>();
+
+        for (int from = 0; from < batch.size(); from += HELIX_MAX_IDS) {
+            List<PendingUpdate> chunk = batch.subList(from, Math.min(batch.size(), from + HELIX_MAX_IDS));
+            List<String> ids = new ArrayList<>(chunk.size());
+            for (PendingUpdate update : chunk) ids.add(update.redemptionId());
+
+            long start = System.nanoTime();
+            Set<String> updated = new HashSet<>();
+            try {
+                CustomRewardRedemptionList result = plugin.getHelix().updateRedemptionStatus(channel.getConfig().getAccessToken(), channel.getChannelId(), key.rewardId(), ids, key.status()).execute();
+                if (result != null && result.getRedemptions() != null) {
+                    for (CustomRewardRedemption redemption : result.getRedemptions()) {
+                        updated.add(redemption.getRedemptionId());
+                    }
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to update " + ids.size() + " redemption(s) to " + key.status() + " (attempt " + attempt + "): " + e.getMessage());
+            }
+            plugin.getMetrics().getHelixStatusUpdate().recordSince(start);
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            for (PendingUpdate update : chunk) {
+                if (updated.contains(update.redemptionId())) {
+                    update.result().complete(true);
+                } else {
+                    failed.add(update);
+                }
+            }
+
+            logger.log(Level.FINE, "Updated " + updated.size() + "/" + ids.size() + " redemption(s) to " + key.status() + " in " + latencyMillis + " ms.");
+        }
+
+        if (failed.isEmpty()) return;
+
+        if (attempt >= MAX_ATTEMPTS || scheduler.isShutdown()) {
+            for (PendingUpdate update : failed) {
+                logger.log(Level.WARNING, "Giving up on updating redemption " + update.redemptionId() + " to " + key.status() + ".");
+                update.result().complete(false);
+            }
+            return;
+        }
+
+        try {
+            scheduler.schedule(() -> sendAsync(key, failed, attempt + 1), RETRY_BACKOFF_MILLIS * attempt, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down while this call was in flight
+            for (PendingUpdate update : failed) update.result().complete(false);
+        }
+    }
+
+    /**
+     * Sends all pending updates and stops the batcher
+     */
+    public void shutdown() {
+        List<Map.Entry<BatchKey, List<PendingUpdate>>> remaining;
+        synchronized (pending) {
+            remaining = new ArrayList<>(pending.entrySet());
+            pending.clear();
+            for (ScheduledFuture<?> timer : timers.values()) timer.cancel(false);
+            timers.clear();
+        }
+
+        scheduler.shutdown();
+        for (Map.Entry<BatchKey, List<PendingUpdate>> entry : remaining) {
+            send(entry.getKey(), entry.getValue(), MAX_ATTEMPTS);
+        }
+
+        try {
+            // pending retries are handed to the senders before they are stopped
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            senders.shutdown();
+            senders.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
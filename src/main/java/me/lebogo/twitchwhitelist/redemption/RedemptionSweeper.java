@@ -0,0 +1,143 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import me.lebogo.twitchwhitelist.ChannelConfig;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Picks up redemptions that were made while the server was down by sweeping the unfulfilled redemptions of every reward.
+ * After a complete sweep, the time of the oldest redemption that is still unfulfilled is kept per reward as a cursor
+ * in sweep-cursors.tsv. Redemptions that were left open stay in range, and each sweep only pages back to the oldest of them.
+ */
+public class RedemptionSweeper {
+    private final RedemptionRouter router;
+    private final UnfulfilledRedemptionPoller poller;
+    private final Path cursorPath;
+    private final Logger logger;
+    private final Map<String, Instant> cursors = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    public RedemptionSweeper(UnfulfilledRedemptionPoller poller, RedemptionRouter router, Path cursorPath, Logger logger) {
+        this.poller = poller;
+        this.router = router;
+        this.cursorPath = cursorPath;
+        this.logger = logger;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TwitchWhitelist-Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    /**
+     * Runs a sweep right away and then every {@code intervalSeconds} seconds
+     *
+     * @param intervalSeconds Seconds between sweeps, 0 or less to only sweep once
+     */
+    public void start(long intervalSeconds) {
+        if (intervalSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::sweep, 0, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            scheduler.execute(this::sweep);
+        }
+    }
+
+    /**
+     * Routes all unfulfilled redemptions that are not older than the stored cursors and moves the cursors forward
+     */
+    public void sweep() {
+        long start = System.nanoTime();
+        int queued = 0;
+
+        for (TwitchChannel channel : router.getChannels()) {
+            ChannelConfig config = channel.getConfig();
+            for (String rewardId : List.of(config.getJavaRewardId(), config.getBedrockRewardId())) {
+                if ("Disabled".equals(rewardId) || "Autogenerated".equals(rewardId)) continue;
+
+                String key = channel.getChannelId() + "/" + rewardId;
+                try {
+                    UnfulfilledRedemptionPoller.Result result = poller.poll(channel, rewardId, cursors.get(key));
+                    queued += result.queued();
+                    // an incomplete sweep keeps the cursor, the older redemptions it did not reach are swept next time
+                    if (result.complete() && result.oldest() != null) {
+                        cursors.put(key, result.oldest());
+                    }
+                } catch (Exception e) {
+                    // keep the cursor, the next sweep covers the same range again
+                    logger.log(Level.WARNING, "Failed to sweep unfulfilled redemptions of " + config.getChannelName() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        save();
+        logger.log(Level.INFO, "Swept " + queued + " unfulfilled redemption(s) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+    }
+
+    private void load() {
+        if (!Files.exists(cursorPath)) return;
+
+        try (BufferedReader reader = Files.newBufferedReader(cursorPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 2) continue;
+
+                try {
+                    cursors.put(fields[0], Instant.ofEpochMilli(Long.parseLong(fields[1])));
+                } catch (NumberFormatException ignored) {
+                    // skip malformed entries
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to read the sweep cursors from " + cursorPath, e);
+        }
+    }
+
+    private synchronized void save() {
+        List<Map.Entry<String, Instant>> entries = new ArrayList<>(cursors.entrySet());
+
+        Path temporaryPath = cursorPath.resolveSibling(cursorPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Instant> entry : entries) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(Long.toString(entry.getValue().toEpochMilli()));
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to write the sweep cursors to " + temporaryPath, e);
+            return;
+        }
+
+        try {
+            Files.move(temporaryPath, cursorPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to replace the sweep cursors at " + cursorPath, e);
+        }
+    }
+
+    /**
+     * Stops the periodic sweeps, a running sweep is interrupted
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,64 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import me.lebogo.twitchwhitelist.ChannelConfig;
+import me.lebogo.twitchwhitelist.LatencyHistogram;
+import me.lebogo.twitchwhitelist.MessageTemplate;
+import me.lebogo.twitchwhitelist.MojangProfileResolver;
+import me.lebogo.twitchwhitelist.PlayerAccessIndex;
+import me.lebogo.twitchwhitelist.WhitelistingStore;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Decides whether a redemption has to be denied. Kept free of Twitch and server state so it can be
+ * benchmarked on its own.
+ */
+public class RedemptionValidator {
+    private final PlayerAccessIndex playerAccessIndex;
+    private final Supplier<MojangProfileResolver> mojangProfileResolver;
+    private final LatencyHistogram mojangLookup;
+
+    /**
+     * @param playerAccessIndex     Index of whitelisted and banned players
+     * @param mojangProfileResolver Supplier of the current Mojang resolver, it is replaced on reload
+     * @param mojangLookup          Histogram the Mojang lookup latency is recorded in
+     */
+    public RedemptionValidator(PlayerAccessIndex playerAccessIndex, Supplier<MojangProfileResolver> mojangProfileResolver, LatencyHistogram mojangLookup) {
+        this.playerAccessIndex = playerAccessIndex;
+        this.mojangProfileResolver = mojangProfileResolver;
+        this.mojangLookup = mojangLookup;
+    }
+
+    /**
+     * Checks that only need local state
+     */
+    public DenyReason validate(WhitelistingStore whitelistingStore, Redemption redemption) {
+        // Check if the user already has a whitelist entry
+        if (whitelistingStore.hasTwitchUsername(redemption.twitchUsername())) return DenyReason.ALREADY_REDEEMED;
+
+        String username = redemption.userInput();
+        if (username == null) return DenyReason.NO_USERNAME;
+        if (playerAccessIndex.isWhitelisted(username)) return DenyReason.WHITELISTED;
+        if (playerAccessIndex.isBanned(username)) return DenyReason.BANNED;
+        return null;
+    }
+
+    /**
+     * Checks that call external services. Blocks until they answered.
+     *
+     * @throws java.util.concurrent.CompletionException if a service could not be reached
+     */
+    public DenyReason checkExternal(Redemption redemption, ChannelConfig config, MessageTemplate.Context context) {
+        if (!redemption.isJava() || !config.getCheckJavaUsernames()) return null;
+
+        long start = System.nanoTime();
+        Optional<UUID> profile = mojangProfileResolver.get().resolve(redemption.userInput()).join();
+        mojangLookup.recordSince(start);
+        if (profile.isEmpty()) return DenyReason.UNKNOWN_USERNAME;
+
+        context.uuid(profile.get());
+        return null;
+    }
+}
@@ -0,0 +1,119 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import com.github.twitch4j.eventsub.domain.RedemptionStatus;
+import com.github.twitch4j.helix.TwitchHelix;
+import com.github.twitch4j.helix.domain.CustomRewardRedemption;
+import com.github.twitch4j.helix.domain.CustomRewardRedemptionList;
+import me.lebogo.twitchwhitelist.ChannelConfig;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fetches unfulfilled redemptions of a channel's rewards from Helix and routes them,
+ * to pick up redemptions that were made while no event source was connected.
+ */
+public class UnfulfilledRedemptionPoller {
+    /**
+     * Helix returns at most 50 redemptions per page
+     */
+    private static final int PAGE_SIZE = 50;
+    private static final long MAX_CAPACITY_WAIT_MILLIS = 30000;
+
+    private final TwitchHelix helix;
+    private final RedemptionRouter router;
+    private final Logger logger;
+
+    /**
+     * @param queued   Number of redemptions that were queued
+     * @param complete true if every unfulfilled redemption since the given time was visited
+     * @param oldest   Time of the oldest unfulfilled redemption that was visited, null if there was none.
+     *                 Redemptions that are left open stay unfulfilled, so after a complete pass no open redemption is older.
+     */
+    public record Result(int queued, boolean complete, Instant oldest) {
+    }
+
+    public UnfulfilledRedemptionPoller(TwitchHelix helix, RedemptionRouter router, Logger logger) {
+        this.helix = helix;
+        this.router = router;
+        this.logger = logger;
+    }
+
+    /**
+     * Routes the unfulfilled redemptions of a channel, newest first, until one older than {@code since} is reached
+     *
+     * @param channel Channel to poll
+     * @param since   Oldest redemption time to pick up, null for all
+     * @return Number of redemptions that were queued
+     */
+    public int poll(TwitchChannel channel, Instant since) {
+        ChannelConfig config = channel.getConfig();
+        int queued = 0;
+        for (String rewardId : List.of(config.getJavaRewardId(), config.getBedrockRewardId())) {
+            if ("Disabled".equals(rewardId) || "Autogenerated".equals(rewardId)) continue;
+
+            try {
+                queued += poll(channel, rewardId, since).queued();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to fetch unfulfilled redemptions of " + config.getChannelName() + ": " + e.getMessage());
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Routes the unfulfilled redemptions of one reward page by page, newest first, until one older than {@code since} is reached.
+     * Each page is routed before the next one is requested and the next page waits until the pipeline has room for it,
+     * so a large backlog is never held in memory and does not crowd out live redemptions.
+     * Polling stops at the first redemption that could not be queued, the result is then incomplete.
+     *
+     * @param channel  Channel the reward belongs to
+     * @param rewardId ID of the reward
+     * @param since    Oldest redemption time to pick up, null for all
+     */
+    public Result poll(TwitchChannel channel, String rewardId, Instant since) {
+        ChannelConfig config = channel.getConfig();
+        int queued = 0;
+        Instant oldest = null;
+        String cursor = null;
+        do {
+            CustomRewardRedemptionList page = helix.getCustomRewardRedemption(config.getAccessToken(), channel.getChannelId(), rewardId, null, RedemptionStatus.UNFULFILLED, "NEWEST", cursor, PAGE_SIZE).execute();
+            if (page.getRedemptions() == null) break;
+
+            for (CustomRewardRedemption redemption : page.getRedemptions()) {
+                Instant redeemedAt = redemption.getRedeemedAt();
+                if (since != null && redeemedAt != null && redeemedAt.isBefore(since)) {
+                    return new Result(queued, true, oldest);
+                }
+                if (redeemedAt != null && (oldest == null || redeemedAt.isBefore(oldest))) oldest = redeemedAt;
+
+                if (router.route(channel.getChannelId(), rewardId, redemption.getRedemptionId(), redeemedAt, isJava -> Redemption.of(redemption, isJava))) {
+                    queued++;
+                } else if (!router.isRouted(redemption.getRedemptionId())) {
+                    // the pipeline is full, the older redemptions on the next pages are left for the next poll
+                    return new Result(queued, false, oldest);
+                }
+            }
+
+            cursor = page.getPagination() == null ? null : page.getPagination().getCursor();
+            if (cursor != null && !cursor.isEmpty()) awaitCapacity(channel);
+        } while (cursor != null && !cursor.isEmpty());
+        return new Result(queued, true, oldest);
+    }
+
+    private static void awaitCapacity(TwitchChannel channel) {
+        RedemptionPipeline pipeline = channel.getRedemptionPipeline();
+        long deadline = System.currentTimeMillis() + MAX_CAPACITY_WAIT_MILLIS;
+        while (pipeline != null && pipeline.getQueueSize() >= PAGE_SIZE && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
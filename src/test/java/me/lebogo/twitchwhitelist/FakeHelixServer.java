@@ -0,0 +1,211 @@
+package me.lebogo.twitchwhitelist;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the Helix redemption endpoints.
+ * Every status update is recorded per redemption, and single redemptions can be left out of the answer
+ * the way Helix does when it could not update them.
+ * Open redemptions can be added to be listed as unfulfilled, newest first, until their status was updated.
+ */
+public class FakeHelixServer implements AutoCloseable {
+    private static final Pattern STATUS = Pattern.compile("\"status\"\\s*:\\s*\"(\\w+)\"");
+
+    /**
+     * @param status          Status the redemption was set to
+     * @param receivedAtNanos {@link System#nanoTime()} when the update arrived
+     */
+    public record StatusUpdate(String status, long receivedAtNanos) {
+    }
+
+    private record OpenRedemption(String rewardId, String redemptionId, String twitchUsername, String userInput, Instant redeemedAt) {
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, List<StatusUpdate>> updates = new ConcurrentHashMap<>();
+    private final Set<String> rejected = ConcurrentHashMap.newKeySet();
+    private final List<OpenRedemption> open = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public FakeHelixServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/helix/channel_points/custom_rewards/redemptions", this::handleRedemptions);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the base URL to configure as helixUrl
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/helix";
+    }
+
+    /**
+     * Leaves a redemption out of every answer, so its status update fails
+     */
+    public void reject(String redemptionId) {
+        rejected.add(redemptionId);
+    }
+
+    /**
+     * Lists a redemption as unfulfilled until its status is updated
+     */
+    public void addUnfulfilled(String rewardId, String redemptionId, String twitchUsername, String userInput, Instant redeemedAt) {
+        open.add(new OpenRedemption(rewardId, redemptionId, twitchUsername, userInput, redeemedAt));
+    }
+
+    /**
+     * Gets the accepted status updates of a redemption in the order they arrived
+     */
+    public List<StatusUpdate> getUpdates(String redemptionId) {
+        List<StatusUpdate> redemptionUpdates = updates.get(redemptionId);
+        if (redemptionUpdates == null) return List.of();
+        synchronized (redemptionUpdates) {
+            return List.copyOf(redemptionUpdates);
+        }
+    }
+
+    /**
+     * Gets the number of status update calls, each one may update several redemptions
+     */
+    public int getCallCount() {
+        return calls.get();
+    }
+
+    private void handleRedemptions(HttpExchange exchange) throws IOException {
+        if ("GET".equals(exchange.getRequestMethod())) {
+            handleUnfulfilled(exchange);
+            return;
+        }
+        if (!"PATCH".equals(exchange.getRequestMethod())) {
+            respond(exchange, 404, "{\"error\":\"Not Found\",\"status\":404,\"message\":\"\"}");
+            return;
+        }
+        calls.incrementAndGet();
+        long receivedAt = System.nanoTime();
+
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        Matcher matcher = STATUS.matcher(body);
+        if (!matcher.find()) {
+            respond(exchange, 400, "{\"error\":\"Bad Request\",\"status\":400,\"message\":\"missing status\"}");
+            return;
+        }
+        String status = matcher.group(1);
+
+        Map<String, List<String>> query = parseQuery(exchange);
+        String broadcasterId = first(query, "broadcaster_id", "");
+        String rewardId = first(query, "reward_id", "");
+
+        StringBuilder data = new StringBuilder();
+        for (String id : query.getOrDefault("id", List.of())) {
+            if (rejected.contains(id)) continue;
+
+            List<StatusUpdate> redemptionUpdates = updates.computeIfAbsent(id, key -> Collections.synchronizedList(new ArrayList<>()));
+            redemptionUpdates.add(new StatusUpdate(status, receivedAt));
+            open.removeIf(redemption -> redemption.redemptionId().equals(id));
+
+            if (!data.isEmpty()) data.append(',');
+            data.append("{\"broadcaster_id\":\"").append(broadcasterId)
+                    .append("\",\"id\":\"").append(id)
+                    .append("\",\"user_id\":\"1\",\"user_login\":\"viewer\",\"user_name\":\"viewer\",\"user_input\":\"\"")
+                    .append(",\"status\":\"").append(status)
+                    .append("\",\"reward\":{\"id\":\"").append(rewardId).append("\",\"title\":\"Whitelist\",\"prompt\":\"\",\"cost\":1000}}");
+        }
+        respond(exchange, 200, "{\"data\":[" + data + "]}");
+    }
+
+    /**
+     * Lists the open redemptions of a reward newest first, the cursor is the offset of the next page
+     */
+    private void handleUnfulfilled(HttpExchange exchange) throws IOException {
+        Map<String, List<String>> query = parseQuery(exchange);
+        String broadcasterId = first(query, "broadcaster_id", "");
+        String rewardId = first(query, "reward_id", "");
+        if (!"UNFULFILLED".equals(first(query, "status", "UNFULFILLED"))) {
+            respond(exchange, 200, "{\"data\":[],\"pagination\":{}}");
+            return;
+        }
+        int pageSize = Integer.parseInt(first(query, "first", "20"));
+        int offset = Integer.parseInt(first(query, "after", "0"));
+
+        List<OpenRedemption> matching = new ArrayList<>();
+        synchronized (open) {
+            for (OpenRedemption redemption : open) {
+                if (redemption.rewardId().equals(rewardId)) matching.add(redemption);
+            }
+        }
+        matching.sort(Comparator.comparing(OpenRedemption::redeemedAt).reversed());
+
+        StringBuilder data = new StringBuilder();
+        int end = Math.min(matching.size(), offset + pageSize);
+        for (OpenRedemption redemption : matching.subList(Math.min(offset, end), end)) {
+            if (!data.isEmpty()) data.append(',');
+            data.append("{\"broadcaster_id\":\"").append(broadcasterId)
+                    .append("\",\"id\":\"").append(redemption.redemptionId())
+                    .append("\",\"user_id\":\"1\",\"user_login\":\"").append(redemption.twitchUsername())
+                    .append("\",\"user_name\":\"").append(redemption.twitchUsername())
+                    .append("\",\"user_input\":\"").append(redemption.userInput())
+                    .append("\",\"status\":\"UNFULFILLED\",\"redeemed_at\":\"").append(redemption.redeemedAt())
+                    .append("\",\"reward\":{\"id\":\"").append(rewardId).append("\",\"title\":\"Whitelist\",\"prompt\":\"\",\"cost\":1000}}");
+        }
+        String pagination = end < matching.size() ? "{\"cursor\":\"" + end + "\"}" : "{}";
+        respond(exchange, 200, "{\"data\":[" + data + "],\"pagination\":" + pagination + "}");
+    }
+
+    private static Map<String, List<String>> parseQuery(HttpExchange exchange) {
+        Map<String, List<String>> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        for (String parameter : query == null ? new String[0] : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator < 0) continue;
+            String name = parameter.substring(0, separator);
+            String value = URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+            parameters.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+        }
+        return parameters;
+    }
+
+    private static String first(Map<String, List<String>> query, String name, String defaultValue) {
+        List<String> values = query.get(name);
+        return values == null || values.isEmpty() ? defaultValue : values.getFirst();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,85 @@
+package me.lebogo.twitchwhitelist;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the Mojang profile API. Only names added with {@link #addProfile(String)} exist.
+ */
+public class FakeMojangServer implements AutoCloseable {
+    private static final String PROFILE_PATH = "/users/profiles/minecraft/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, UUID> profiles = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public FakeMojangServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PROFILE_PATH, this::handleProfile);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the base URL to configure as mojangApiUrl
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Makes a name exist
+     *
+     * @return UUID of the new profile
+     */
+    public UUID addProfile(String name) {
+        return profiles.computeIfAbsent(name.toLowerCase(Locale.ROOT), key -> UUID.randomUUID());
+    }
+
+    /**
+     * Gets the number of profile lookups that reached the server
+     */
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    private void handleProfile(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String name = exchange.getRequestURI().getPath().substring(PROFILE_PATH.length());
+        UUID uuid = profiles.get(name.toLowerCase(Locale.ROOT));
+
+        if (uuid == null) {
+            // the API answers unknown names without a body
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] bytes = ("{\"id\":\"" + uuid.toString().replace("-", "") + "\",\"name\":\"" + name + "\"}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
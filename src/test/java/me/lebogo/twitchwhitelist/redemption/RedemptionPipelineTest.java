@@ -0,0 +1,346 @@
+package me.lebogo.twitchwhitelist.redemption;
+
+import com.github.twitch4j.helix.TwitchHelixBuilder;
+import me.lebogo.twitchwhitelist.ChatResponseSender;
+import me.lebogo.twitchwhitelist.CommandDispatcher;
+import me.lebogo.twitchwhitelist.FakeHelixServer;
+import me.lebogo.twitchwhitelist.FakeMojangServer;
+import me.lebogo.twitchwhitelist.MojangProfileResolver;
+import me.lebogo.twitchwhitelist.PlayerAccessIndex;
+import me.lebogo.twitchwhitelist.RedemptionMetrics;
+import me.lebogo.twitchwhitelist.TwitchChannel;
+import me.lebogo.twitchwhitelist.TwitchWhitelist;
+import me.lebogo.twitchwhitelist.TwitchWhitelistConfig;
+import me.lebogo.twitchwhitelist.WhitelistingStore;
+import me.lebogo.twitchwhitelist.YamlWhitelistingStore;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Drives the redemption pipeline end to end against the local Helix and Mojang stand-ins.
+ * Events are injected through the router, the same way the PubSub and EventSub sources hand them over.
+ * The server is mocked, whitelist commands are recorded instead of run.
+ * The shipped configuration is used unless a test changes it.
+ */
+class RedemptionPipelineTest {
+    private static final String CHANNEL_ID = "1000";
+    private static final String JAVA_REWARD_ID = "java-reward";
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @TempDir
+    Path dataFolder;
+
+    private FakeHelixServer helix;
+    private FakeMojangServer mojang;
+    private YamlConfiguration yaml;
+    private TwitchWhitelist plugin;
+    private RedemptionLedger ledger;
+    private WhitelistingStore store;
+    private TwitchChannel channel;
+    private RedemptionRouter router;
+    private final Queue<String> commands = new ConcurrentLinkedQueue<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        helix = new FakeHelixServer();
+        mojang = new FakeMojangServer();
+
+        try (Reader reader = new InputStreamReader(TwitchWhitelist.class.getResourceAsStream("/config.yml"), StandardCharsets.UTF_8)) {
+            yaml = YamlConfiguration.loadConfiguration(reader);
+        }
+        yaml.set("accessToken", "test-token");
+        yaml.set("channelName", "streamer");
+        yaml.set("javaRewardId", JAVA_REWARD_ID);
+        yaml.set("bedrockRewardId", "bedrock-reward");
+        yaml.set("checkJavaUsernames", true);
+        yaml.set("helixUrl", helix.getUrl());
+        yaml.set("mojangApiUrl", mojang.getUrl());
+        yaml.set("redemptionConcurrency", 8);
+        yaml.set("redemptionQueueSize", 5000);
+
+        Logger logger = Logger.getLogger("TwitchWhitelistTest");
+        ledger = new RedemptionLedger(dataFolder.resolve("redemptions.ledger"), logger);
+        ledger.open();
+
+        CommandDispatcher commandDispatcher = mock(CommandDispatcher.class);
+        when(commandDispatcher.dispatch(anyString())).thenAnswer(invocation -> {
+            commands.add(invocation.getArgument(0));
+            return CompletableFuture.completedFuture(true);
+        });
+
+        plugin = mock(TwitchWhitelist.class);
+        when(plugin.getLogger()).thenReturn(logger);
+        when(plugin.getRedemptionLedger()).thenReturn(ledger);
+        when(plugin.getMetrics()).thenReturn(new RedemptionMetrics());
+        when(plugin.getPlayerAccessIndex()).thenReturn(mock(PlayerAccessIndex.class));
+        when(plugin.getMojangProfileResolver()).thenReturn(new MojangProfileResolver(mojang.getUrl(), Duration.ofSeconds(5), 10000, 60000, 60000, null));
+        when(plugin.getCommandDispatcher()).thenReturn(commandDispatcher);
+        when(plugin.getChatResponseSender()).thenReturn(mock(ChatResponseSender.class));
+        when(plugin.getHelix()).thenReturn(TwitchHelixBuilder.builder().withBaseUrl(helix.getUrl()).withClientId("test-client").build());
+
+        startChannel();
+    }
+
+    /**
+     * Starts the channel with the current configuration, a running channel is shut down first
+     */
+    private void startChannel() throws Exception {
+        if (channel != null) channel.shutdown();
+
+        when(plugin.getTwitchWhitelistConfig()).thenReturn(new TwitchWhitelistConfig(yaml));
+        store = new YamlWhitelistingStore(dataFolder.resolve("whitelistings.yml"), true, 1 << 20);
+        channel = new TwitchChannel(plugin, "default", CHANNEL_ID, store);
+        channel.start();
+        router = new RedemptionRouter(Map.of(CHANNEL_ID, channel));
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdown();
+        ledger.close();
+        helix.close();
+        mojang.close();
+    }
+
+    private boolean inject(String redemptionId, String twitchUsername, String minecraftUsername) {
+        return router.route(CHANNEL_ID, JAVA_REWARD_ID, redemptionId, Instant.now(),
+                isJava -> new Redemption(redemptionId, JAVA_REWARD_ID, "Whitelist", twitchUsername, twitchUsername, minecraftUsername, isJava));
+    }
+
+    private static void await(String description, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out waiting until " + description);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitFinal(String redemptionId) throws InterruptedException {
+        await(redemptionId + " is finished", () -> {
+            RedemptionLedger.State state = ledger.getState(redemptionId);
+            return state != null && state.isFinal();
+        });
+    }
+
+    private List<String> statuses(String redemptionId) {
+        List<String> statuses = new ArrayList<>();
+        for (FakeHelixServer.StatusUpdate update : helix.getUpdates(redemptionId)) statuses.add(update.status());
+        return statuses;
+    }
+
+    @Test
+    void fulfilsExistingJavaName() throws Exception {
+        mojang.addProfile("Steve");
+
+        assertTrue(inject("r1", "viewer", "Steve"));
+        awaitFinal("r1");
+
+        assertEquals(RedemptionLedger.State.PERSISTED, ledger.getState("r1"));
+        assertEquals(List.of("FULFILLED"), statuses("r1"));
+        assertEquals(List.of("whitelist add Steve"), List.copyOf(commands));
+        assertEquals("Steve", store.getByTwitchUsername("viewer").minecraftUsername());
+    }
+
+    @Test
+    void refundsUnknownJavaName() throws Exception {
+        assertTrue(inject("r1", "viewer", "NoSuchPlayer"));
+        awaitFinal("r1");
+
+        assertEquals(RedemptionLedger.State.DENIED, ledger.getState("r1"));
+        assertEquals(List.of("CANCELED"), statuses("r1"));
+        assertTrue(commands.isEmpty());
+        assertFalse(store.hasTwitchUsername("viewer"));
+    }
+
+    @Test
+    void processesReplayedEventOnce() throws Exception {
+        mojang.addProfile("Steve");
+
+        assertTrue(inject("r1", "viewer", "Steve"));
+        // the same event again from a catch-up poll, and once more past the router straight into the pipeline
+        assertFalse(inject("r1", "viewer", "Steve"));
+        channel.getRedemptionPipeline().submit(new Redemption("r1", JAVA_REWARD_ID, "Whitelist", "viewer", "viewer", "Steve", true));
+        awaitFinal("r1");
+        Thread.sleep(200);
+
+        assertEquals(List.of("FULFILLED"), statuses("r1"));
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    void refundsSecondRedemptionOfSameViewer() throws Exception {
+        mojang.addProfile("Steve");
+
+        assertTrue(inject("r1", "viewer", "Steve"));
+        assertTrue(inject("r2", "viewer", "Steve"));
+        awaitFinal("r1");
+        awaitFinal("r2");
+
+        List<String> outcomes = new ArrayList<>(statuses("r1"));
+        outcomes.addAll(statuses("r2"));
+        Collections.sort(outcomes);
+        assertEquals(List.of("CANCELED", "FULFILLED"), outcomes);
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    void fulfilsSecondRedemptionWhenFirstOfSameViewerIsRefunded() throws Exception {
+        mojang.addProfile("Steve");
+
+        // a typo in the first redemption must not cost the viewer the corrected one
+        assertTrue(inject("r1", "viewer", "NoSuchPlayer"));
+        assertTrue(inject("r2", "viewer", "Steve"));
+        awaitFinal("r1");
+        awaitFinal("r2");
+
+        assertEquals(List.of("CANCELED"), statuses("r1"));
+        assertEquals(List.of("FULFILLED"), statuses("r2"));
+        assertEquals(List.of("whitelist add Steve"), List.copyOf(commands));
+    }
+
+    @Test
+    void keepsRedemptionOpenWhileStatusUpdateFails() throws Exception {
+        mojang.addProfile("Steve");
+        helix.reject("r1");
+
+        assertTrue(inject("r1", "viewer", "Steve"));
+        // the whitelisting is stored once the batcher gave up after its retries
+        await("the whitelisting is stored", () -> store.hasTwitchUsername("viewer"));
+        Thread.sleep(200);
+
+        assertEquals(RedemptionLedger.State.COMMAND_DISPATCHED, ledger.getState("r1"));
+        assertTrue(ledger.getUnfinished("default").stream().anyMatch(entry -> entry.redemption().id().equals("r1")));
+        assertEquals(1, commands.size());
+    }
+
+    /**
+     * The sweep keeps its cursor at a redemption that is left open, so the next start still picks it up,
+     * and pages through more unfulfilled redemptions than Helix returns at once.
+     */
+    @Test
+    void sweepKeepsRedemptionLeftOpenInRange() throws Exception {
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        // the whitelist command runs, but the redemption stays unfulfilled on Twitch
+        mojang.addProfile("Steve");
+        helix.addUnfulfilled(JAVA_REWARD_ID, "open", "viewer", "Steve", now.minus(2, ChronoUnit.HOURS));
+        helix.reject("open");
+        int newer = 60;
+        for (int i = 0; i < newer; i++) {
+            mojang.addProfile("Player" + i);
+            helix.addUnfulfilled(JAVA_REWARD_ID, "r" + i, "viewer" + i, "Player" + i, now.minus(i + 1, ChronoUnit.MINUTES));
+        }
+
+        Path cursorPath = dataFolder.resolve("sweep-cursors.tsv");
+        Logger logger = plugin.getLogger();
+        new RedemptionSweeper(new UnfulfilledRedemptionPoller(plugin.getHelix(), router, logger), router, cursorPath, logger).sweep();
+
+        assertTrue(router.isRouted("open"));
+        for (int i = 0; i < newer; i++) awaitFinal("r" + i);
+        assertEquals(List.of(CHANNEL_ID + "/" + JAVA_REWARD_ID + "\t" + now.minus(2, ChronoUnit.HOURS).toEpochMilli()), Files.readAllLines(cursorPath));
+
+        // after a restart only the open redemption is unfulfilled, and it is still in range of the cursor
+        startChannel();
+        new RedemptionSweeper(new UnfulfilledRedemptionPoller(plugin.getHelix(), router, logger), router, cursorPath, logger).sweep();
+
+        assertTrue(router.isRouted("open"));
+        for (int i = 0; i < newer; i++) assertFalse(router.isRouted("r" + i), "r" + i + " was fulfilled");
+    }
+
+    /**
+     * Load generator: every viewer redeems twice, so half of the redemptions have to be refunded.
+     * Checks exactly-once outcomes and reports throughput and latency up to the status update on Twitch,
+     * with the shipped batch window and a short one.
+     */
+    @ParameterizedTest(name = "batch window {0} ms")
+    @ValueSource(longs = {250, 10})
+    void handlesBurstOfRedemptionsExactlyOnce(long batchWindowMillis, TestReporter reporter) throws Exception {
+        if (batchWindowMillis != yaml.getLong("redemptionStatusBatchWindow")) {
+            yaml.set("redemptionStatusBatchWindow", batchWindowMillis);
+            startChannel();
+        }
+
+        int viewers = 1000;
+        for (int i = 0; i < viewers; i++) mojang.addProfile("Player" + i);
+
+        Map<String, Long> submittedAt = new ConcurrentHashMap<>();
+        long start = System.nanoTime();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < viewers; i++) {
+                String id = "r" + round + "-" + i;
+                submittedAt.put(id, System.nanoTime());
+                assertTrue(inject(id, "viewer" + i, "Player" + i), "queue full at " + id);
+            }
+        }
+        for (String id : submittedAt.keySet()) awaitFinal(id);
+        long elapsedNanos = System.nanoTime() - start;
+
+        List<Long> latencies = new ArrayList<>(submittedAt.size());
+        for (int i = 0; i < viewers; i++) {
+            List<FakeHelixServer.StatusUpdate> first = helix.getUpdates("r0-" + i);
+            List<FakeHelixServer.StatusUpdate> second = helix.getUpdates("r1-" + i);
+            assertEquals(1, first.size(), "status updates of r0-" + i);
+            assertEquals(1, second.size(), "status updates of r1-" + i);
+            // exactly one of the two redemptions of a viewer is fulfilled
+            assertEquals(1, (first.getFirst().status().equals("FULFILLED") ? 1 : 0) + (second.getFirst().status().equals("FULFILLED") ? 1 : 0), "fulfilled redemptions of viewer" + i);
+            assertTrue(store.hasTwitchUsername("viewer" + i));
+
+            latencies.add(first.getFirst().receivedAtNanos() - submittedAt.get("r0-" + i));
+            latencies.add(second.getFirst().receivedAtNanos() - submittedAt.get("r1-" + i));
+        }
+        assertEquals(viewers, commands.size());
+        assertEquals(viewers, store.getWhitelistings().size());
+
+        Collections.sort(latencies);
+        double seconds = elapsedNanos / 1e9;
+        long p50 = TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() / 2));
+        long p99 = TimeUnit.NANOSECONDS.toMillis(latencies.get(latencies.size() * 99 / 100));
+        double throughput = latencies.size() / seconds;
+        reporter.publishEntry(Map.of(
+                "redemptions", Integer.toString(latencies.size()),
+                "throughput", String.format("%.0f/s", throughput),
+                "p50", p50 + " ms",
+                "p99", p99 + " ms",
+                "helixCalls", Integer.toString(helix.getCallCount()),
+                "mojangLookups", Integer.toString(mojang.getRequestCount())));
+
+        // status updates are batched, far fewer calls than redemptions
+        assertTrue(helix.getCallCount() < latencies.size(), "Helix calls: " + helix.getCallCount());
+        // generous bounds that only catch a pipeline that stalls, not a slow machine
+        assertTrue(throughput > 50, "throughput " + throughput + "/s");
+        assertTrue(p99 < batchWindowMillis + TimeUnit.SECONDS.toMillis(10), "p99 " + p99 + " ms");
+    }
+}